@@ -0,0 +1,275 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes;
+
+import com.github.johanneshiry.populartimes.transport.ApacheAsyncHttpTransport;
+import com.github.johanneshiry.populartimes.transport.BaseUrls;
+import com.github.johanneshiry.populartimes.transport.ResilientTransport;
+import com.github.johanneshiry.populartimes.transport.Transport;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable configuration of a {@link PopularTimesCrawler}. As the configuration cannot change, a crawler can be
+ * shared by any number of threads. Expensive resources like the transport can be shared by several configurations.
+ * <p>
+ * Example: {@code CrawlerConfig.builder(apiKey, "restaurant").keyword("pizza").postFilter(true).build()}
+ */
+public class CrawlerConfig {
+
+    static final String DEFAULT_USER_AGENT =
+                    "Mozilla/5.0 (iPhone; CPU iPhone OS 8_1_1 like Mac OS X) AppleWebKit/600.1.4 (KHTML, like Gecko) " +
+                    "Mobile/12B435 mobile/iPhone OS/iPhone/iPhone6,1/8.1.1/KBS kong/1.0.8";
+
+    private final String    apiKey;
+    private final String    type;              // type of the place that is used as filter
+    private final String    keyword;           // optional keyword of the nearby search, may be null
+    private final boolean   postFilter;
+    //if true and keyword is provided, the results will be filtered to ensure that name contains keyword
+    private final boolean   reuseNearbyFields;
+    //if true, place information of the nearby search is kept and details are only requested for missing fields
+    private final boolean   detailOnlyFallback;
+    //if true, places are returned without popular times while google/search is unavailable
+    private final Transport transport;         // used for all requests to google
+    private final Executor  callbackExecutor;  // parses responses and completes the futures of the async api
+    private final BaseUrls  baseUrls;
+    private final String    userAgent;         // user agent of the google/search requests
+
+    private CrawlerConfig(Builder builder) {
+        this.apiKey = builder.apiKey;
+        this.type = builder.type;
+        this.keyword = builder.keyword;
+        this.postFilter = builder.postFilter;
+        this.reuseNearbyFields = builder.reuseNearbyFields;
+        this.detailOnlyFallback = builder.detailOnlyFallback;
+        this.transport = builder.transport != null ? builder.transport : DefaultTransportHolder.TRANSPORT;
+        this.callbackExecutor = builder.callbackExecutor != null ? builder.callbackExecutor :
+                                DefaultCallbackExecutorHolder.EXECUTOR;
+        this.baseUrls = builder.baseUrls;
+        this.userAgent = builder.userAgent;
+    }
+
+    /**
+     * @param apiKey: google places api key
+     * @param type:   type of the place that is used as filter
+     * @return a new builder with default settings
+     */
+    public static Builder builder(String apiKey, String type) {
+        return new Builder(apiKey, type);
+    }
+
+    /**
+     * @return a new builder initialized with the settings of this configuration
+     */
+    public Builder toBuilder() {
+        return new Builder(apiKey, type).keyword(keyword).postFilter(postFilter).reuseNearbyFields(reuseNearbyFields)
+                        .detailOnlyFallback(detailOnlyFallback).transport(transport)
+                        .callbackExecutor(callbackExecutor).baseUrls(baseUrls).userAgent(userAgent);
+    }
+
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getKeyword() {
+        return keyword;
+    }
+
+    public boolean isPostFilter() {
+        return postFilter;
+    }
+
+    public boolean isReuseNearbyFields() {
+        return reuseNearbyFields;
+    }
+
+    public boolean isDetailOnlyFallback() {
+        return detailOnlyFallback;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    public BaseUrls getBaseUrls() {
+        return baseUrls;
+    }
+
+    public String getUserAgent() {
+        return userAgent;
+    }
+
+    @Override
+    public String toString() {
+        return "CrawlerConfig{" + "type='" + type + '\'' + ", keyword='" + keyword + '\'' + ", postFilter=" +
+               postFilter + ", reuseNearbyFields=" + reuseNearbyFields + ", detailOnlyFallback=" +
+               detailOnlyFallback + ", transport=" + transport + ", callbackExecutor=" +
+               callbackExecutor + ", baseUrls=" + baseUrls + '}';
+    }
+
+    /**
+     * The transport used if none is configured. It is created on first use and shared by all crawlers of the
+     * process, so its connection pool, bulkheads and circuit breakers are shared instead of being created per crawler.
+     */
+    private static class DefaultTransportHolder {
+        private static final Transport TRANSPORT = new ResilientTransport(new ApacheAsyncHttpTransport());
+    }
+
+    /**
+     * The callback executor used if none is configured. Its threads are created on demand and are reused, so callbacks
+     * blocking on other requests of the crawler cannot starve it.
+     */
+    private static class DefaultCallbackExecutorHolder {
+        private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(daemonThreadFactory());
+
+        private static ThreadFactory daemonThreadFactory() {
+            AtomicInteger counter = new AtomicInteger();
+            return runnable -> {
+                Thread thread = new Thread(runnable, "populartimes-callback-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
+    public static class Builder {
+
+        private final String    apiKey;
+        private final String    type;
+        private       String    keyword;
+        private       boolean   postFilter;
+        private       boolean   reuseNearbyFields;
+        private       boolean   detailOnlyFallback;
+        private       Transport transport;
+        private       Executor  callbackExecutor;
+        private       BaseUrls  baseUrls  = BaseUrls.GOOGLE;
+        private       String    userAgent = DEFAULT_USER_AGENT;
+
+        private Builder(String apiKey, String type) {
+            this.apiKey = Objects.requireNonNull(apiKey, "apiKey");
+            this.type = Objects.requireNonNull(type, "type");
+        }
+
+        /**
+         * Set optional keyword parameter
+         */
+        public Builder keyword(String keyword) {
+            this.keyword = keyword;
+            return this;
+        }
+
+        /**
+         * if true and keyword is provided, the results will be filtered to ensure that name contains keyword
+         */
+        public Builder postFilter(boolean postFilter) {
+            this.postFilter = postFilter;
+            return this;
+        }
+
+        /**
+         * if true, name, vicinity, types, location, rating and reviews found by the nearby search are kept.
+         * google/search is queried with name and vicinity, so the details api is only asked for the formatted
+         * address of places that are returned, i.e. places with popular times or pending popular times. Places
+         * without popular times and filtered places need no details request at all. If the details request fails,
+         * the place is returned with the vicinity as its address. Rating and reviews of the nearby search are used if
+         * google/search does not provide them.
+         */
+        public Builder reuseNearbyFields(boolean reuseNearbyFields) {
+            this.reuseNearbyFields = reuseNearbyFields;
+            return this;
+        }
+
+        /**
+         * if true, places are returned without popular times while google/search fails or is rejected by its circuit
+         * breaker. These places are marked by
+         * {@link com.github.johanneshiry.populartimes.utils.GooglePlace#isPopularTimesPending()} for a later
+         * backfill. If false, these places are dropped.
+         */
+        public Builder detailOnlyFallback(boolean detailOnlyFallback) {
+            this.detailOnlyFallback = detailOnlyFallback;
+            return this;
+        }
+
+        /**
+         * transport used for all requests, defaults to a non-blocking transport with per endpoint bulkheads and
+         * circuit breakers shared by the whole process
+         */
+        public Builder transport(Transport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * executor that parses the responses and completes the futures returned by the async methods of the crawler,
+         * so neither parsing nor the callbacks of the caller run on the I/O threads of the transport. Defaults to a
+         * cached pool of daemon threads shared by the whole process.
+         */
+        public Builder callbackExecutor(Executor callbackExecutor) {
+            this.callbackExecutor = callbackExecutor;
+            return this;
+        }
+
+        /**
+         * base urls of the queried endpoints, e.g. to query a local stub server instead of google
+         */
+        public Builder baseUrls(BaseUrls baseUrls) {
+            this.baseUrls = Objects.requireNonNull(baseUrls, "baseUrls");
+            return this;
+        }
+
+        /**
+         * user agent of the requests to google/search
+         */
+        public Builder userAgent(String userAgent) {
+            this.userAgent = Objects.requireNonNull(userAgent, "userAgent");
+            return this;
+        }
+
+        public CrawlerConfig build() {
+            return new CrawlerConfig(this);
+        }
+    }
+}
@@ -34,99 +34,194 @@ package com.github.johanneshiry.populartimes;
 
 import com.github.johanneshiry.populartimes.utils.GooglePlace;
 import com.github.johanneshiry.populartimes.utils.LatLong;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.DefaultHttpClient;
+import com.github.johanneshiry.populartimes.utils.SingleFlight;
+import com.github.johanneshiry.populartimes.transport.BaseUrls;
+import com.github.johanneshiry.populartimes.transport.CallNotPermittedException;
+import com.github.johanneshiry.populartimes.transport.Endpoint;
+import com.github.johanneshiry.populartimes.transport.HttpStatusException;
+import com.github.johanneshiry.populartimes.transport.Transport;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.ss.usermodel.*;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.*;
-import java.net.URL;
-import java.net.URLConnection;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.*;
-
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+
+/**
+ * Crawls place information and popular times. The crawler is immutable and can be shared by any number of threads,
+ * its settings are provided by a {@link CrawlerConfig}.
+ * <p>
+ * The async methods never block the calling thread. The returned futures are completed and their dependent stages
+ * are executed on the {@link CrawlerConfig#getCallbackExecutor() callback executor}, never on the I/O threads of the
+ * transport, so callbacks may parse, block or call the crawler again. Stages of futures that are already complete
+ * when the callback is attached run on the attaching thread, as usual for {@link CompletableFuture}.
+ * <p>
+ * Crawl events are logged via slf4j as key=value pairs (event, endpoint, placeId, latencyMs, outcome, ...): frames on
+ * info, places and requests on debug, closed days on trace and failures on warn.
+ */
 public class PopularTimesCrawler {
 
-    private int     radius;         // search distance in meters
-    private boolean allPlaces;      // include/exclude places without popular times
-    private String  apiKey;
-    private String  type;           // type of the place that is used as filter
-    private String  keyword;
-    private boolean postFilter;
-    //if true and keyword is provided, the results will be filtered to ensure that name contains keyword
+    private static final Logger log = LoggerFactory.getLogger(PopularTimesCrawler.class);
 
-    private ArrayList<LatLong> qRadar;  //list containing lat/long values to search for objects
+    private final CrawlerConfig config;
 
-    private ArrayList<GooglePlace> placesList; //list containing found googlePlaces objects
+    private final String    apiKey;
+    private final String    type;             // type of the place that is used as filter
+    private final String    keyword;
+    private final boolean   postFilter;
+    //if true and keyword is provided, the results will be filtered to ensure that name contains keyword
+    private final boolean   reuseNearbyFields;
+    //if true, place information of the nearby search is kept and details are only requested for missing fields
+    private final boolean   detailOnlyFallback;
+    //if true, places are returned without popular times while google/search is unavailable
+    private final Transport transport;        // used for all requests to google
+    private final Executor  callbackExecutor; // completes the futures of the transport
+
+    //concurrent lookups of the same place, search query or search circle share one request
+    private final SingleFlight<String, GooglePlace>       placeFlights  = new SingleFlight<>(); // by place id
+    private final SingleFlight<String, JSONArray>         searchFlights = new SingleFlight<>(); // by search query
+    private final SingleFlight<String, List<PlaceDetail>> radarFlights  = new SingleFlight<>(); // by nearby search url
 
     //google stuff
-    String radarUrl          =
-                    "https://maps.googleapis.com/maps/api/place/nearbysearch/json?location=%s,%s&radius=%s&type=%s&keyword=%s&key=%s";
-    String radarUrlNoKeyword =
-                    "https://maps.googleapis.com/maps/api/place/nearbysearch/json?location=%s,%s&radius=%s&type=%s&key=%s";
-    String detailUrl         = "https://maps.googleapis.com/maps/api/place/details/json?placeid=%s&key=%s";
+    private final String radarUrl;
+    private final String radarUrlNoKeyword;
+    private final String detailUrl;
+    private final String searchUrl;
 
-    String userAgent =
-                    "Mozilla/5.0 (iPhone; CPU iPhone OS 8_1_1 like Mac OS X) AppleWebKit/600.1.4 (KHTML, like Gecko) Mobile/12B435 mobile/iPhone OS/iPhone/iPhone6,1/8.1.1/KBS kong/1.0.8";
+    private final String userAgent;
 
     public PopularTimesCrawler(String apiKey, String type) {
+        this(CrawlerConfig.builder(apiKey, type).build());
+    }
+
+    /**
+     * @param apiKey:    google places api key
+     * @param type:      type of the place that is used as filter
+     * @param transport: transport used for all requests
+     * @param baseUrls:  base urls of the queried endpoints, e.g. to query a local stub server instead of google
+     */
+    public PopularTimesCrawler(String apiKey, String type, Transport transport, BaseUrls baseUrls) {
+        this(CrawlerConfig.builder(apiKey, type).transport(transport).baseUrls(baseUrls).build());
+    }
 
-        this.allPlaces = false;
-        this.postFilter = false;
+    public PopularTimesCrawler(CrawlerConfig config) {
 
-        this.qRadar = new ArrayList<>();
-        this.placesList = new ArrayList<>();
+        this.config = config;
 
-        this.apiKey = apiKey;
-        this.type = type;
+        this.apiKey = config.getApiKey();
+        this.type = config.getType();
+        this.keyword = config.getKeyword();
+        this.postFilter = config.isPostFilter();
+        this.reuseNearbyFields = config.isReuseNearbyFields();
+        this.detailOnlyFallback = config.isDetailOnlyFallback();
+        this.transport = config.getTransport();
+        this.callbackExecutor = config.getCallbackExecutor();
+
+        BaseUrls baseUrls = config.getBaseUrls();
+        this.radarUrl = baseUrls.getNearbySearchUrl() + "?location=%s,%s&radius=%s&type=%s&keyword=%s&key=%s";
+        this.radarUrlNoKeyword = baseUrls.getNearbySearchUrl() + "?location=%s,%s&radius=%s&type=%s&key=%s";
+        this.detailUrl = baseUrls.getDetailsUrl() + "?placeid=%s&fields=%s&key=%s";
+        this.searchUrl = baseUrls.getSearchUrl() + "?%s";
+
+        this.userAgent = config.getUserAgent();
 
     }
 
+    public CrawlerConfig getConfig() {
+        return config;
+    }
+
     /**
      * get place information and popular times for a provided frame of min/max Coordinates via radius search
      *
      * @return
      */
     public ArrayList<GooglePlace> getDataOfFrame(LatLong minCoord, LatLong maxCoord, int radius) {
+        return new ArrayList<>(await(getDataOfFrameAsync(minCoord, maxCoord, radius)));
+    }
 
-        ArrayList<GooglePlace> result;
-        this.radius = radius;
-
-        System.out.println("Starting radial search...");
-        qRadar = getCircleCenters(minCoord, maxCoord, radius);
-        ArrayList<String> ids = getIDs(qRadar);
+    /**
+     * non-blocking version of {@link #getDataOfFrame(LatLong, LatLong, int)}, the future is completed on the callback
+     * executor
+     *
+     * @return future completed with all places with popular times inside the frame
+     */
+    public CompletableFuture<List<GooglePlace>> getDataOfFrameAsync(LatLong minCoord, LatLong maxCoord, int radius) {
+        return getNearbyPlacesOfFrameAsync(minCoord, maxCoord, radius).thenCompose(this::getDetailsAsync);
+    }
 
-        Set<String> uniqeIDs = new HashSet<String>(ids); //ensure unique values
-        ids.clear();
-        ids.addAll(uniqeIDs);
+    /**
+     * non-blocking version of {@link #getDataOfFrame(LatLong, LatLong, int)} that hands every place to the provided
+     * consumer as soon as its details are available instead of waiting for the whole frame. The consumer is never
+     * called concurrently and is called from the callback executor.
+     *
+     * @param consumer: receives the places with popular times inside the frame
+     * @return future completed after all places of the frame have been passed to the consumer
+     */
+    public CompletableFuture<Void> getDataOfFrameAsync(LatLong minCoord,
+                                                       LatLong maxCoord,
+                                                       int radius,
+                                                       Consumer<GooglePlace> consumer) {
+        return getNearbyPlacesOfFrameAsync(minCoord, maxCoord, radius).thenCompose(nearbyPlaces -> {
+            Object lock = new Object();
+            List<CompletableFuture<Void>> consumed = new ArrayList<>(nearbyPlaces.size());
+            for(PlaceDetail nearbyPlace : nearbyPlaces) {
+                consumed.add(getDetailAsync(nearbyPlace).thenAccept(place -> {
+                    if(place != null) {
+                        synchronized(lock) {
+                            consumer.accept(place);
+                        }
+                    }
+                }));
+            }
+            return CompletableFuture.allOf(consumed.toArray(new CompletableFuture[0]));
+        });
+    }
 
-        System.out.println(ids.size() + " places to process...");
+    private CompletableFuture<List<PlaceDetail>> getNearbyPlacesOfFrameAsync(LatLong minCoord,
+                                                                              LatLong maxCoord,
+                                                                              int radius) {
 
-        result = getDetail(ids);
+        ArrayList<LatLong> qRadar = getCircleCenters(minCoord, maxCoord, radius);
+        log.info("event=frame_started circles={} radius={}", qRadar.size(), radius);
 
-        return result;
+        return getNearbyPlacesAsync(qRadar, radius).thenApply(nearbyPlaces -> {
+            log.info("event=frame_places_found places={}", nearbyPlaces.size());
+            return nearbyPlaces;
+        });
     }
 
     /**
      * get place information and popular times by uniqe google id
      *
      * @param id
-     * @return
+     * @return the place or null if it has no popular times
      */
     public GooglePlace getDataFromID(String id) {
+        return await(getDataFromIDAsync(id));
+    }
 
-        ArrayList<String> ids = new ArrayList<>();
-        ids.add(id);
-        GooglePlace result = getDetail(ids).get(0);
-
-        return result;
+    /**
+     * non-blocking version of {@link #getDataFromID(String)}, the future is completed on the callback executor
+     *
+     * @param id
+     * @return future completed with the place or null if it has no popular times
+     */
+    public CompletableFuture<GooglePlace> getDataFromIDAsync(String id) {
+        return getDetailAsync(PlaceDetail.ofId(id));
     }
 
     /**
@@ -137,22 +232,23 @@ public class PopularTimesCrawler {
      * @return
      */
     public ArrayList<GooglePlace> getDataFromLocName(String locName, int radius) {
-        ArrayList<GooglePlace> result = new ArrayList<>();
-
-        this.radius = radius;
-
-        //search for lat/long via google search
-        LatLong point = getGeoLocByName(locName);
-        ArrayList<LatLong> locList = new ArrayList<>();
-        locList.add(point);
-
-        //get the ids from api
-        ArrayList<String> ids = getIDs(locList);
+        return new ArrayList<>(await(getDataFromLocNameAsync(locName, radius)));
+    }
 
-        //get the details
-        result = getDetail(ids);
+    /**
+     * non-blocking version of {@link #getDataFromLocName(String, int)}, the future is completed on the callback
+     * executor
+     *
+     * @param locName: location name
+     * @param radius:  search radius
+     * @return future completed with all places with popular times around the location
+     */
+    public CompletableFuture<List<GooglePlace>> getDataFromLocNameAsync(String locName, int radius) {
 
-        return result;
+        //search for lat/long via google search, get the ids from api and afterwards the details
+        return getGeoLocByNameAsync(locName)
+                        .thenCompose(point -> getNearbyPlacesAsync(Collections.singletonList(point), radius))
+                        .thenCompose(this::getDetailsAsync);
     }
 
     /**
@@ -162,22 +258,20 @@ public class PopularTimesCrawler {
      * @param locName
      * @return
      */
-    private LatLong getGeoLocByName(String locName) {
+    private CompletableFuture<LatLong> getGeoLocByNameAsync(String locName) {
 
-        JSONArray data = getSearchData(locName, "");
+        return getSearchDataAsync(locName, "").thenApply(data -> {
 
-        JSONArray info = (JSONArray) ((JSONArray) data.get(1)).get(0);
+            JSONArray info = (JSONArray) ((JSONArray) data.get(1)).get(0);
 
-        LatLong res = new LatLong((double) info.get(2), (double) info.get(1));
-
-        return res;
+            return new LatLong((double) info.get(2), (double) info.get(1));
+        });
 
     }
 
     /**
      * cover the search area with circles for radar search
      * http://stackoverflow.com/questions/7477003/calculating-new-longtitude-latitude-from-old-n-meters
-     * radius parameter is taken from constructor
      *
      * @return ArrayList<String> with all ids of the discovered places
      */
@@ -206,217 +300,322 @@ public class PopularTimesCrawler {
     }
 
     /**
-     * get list with unique google ids from places
+     * get list with unique places
      * query is executed via google API
-     * places - radar search - https://developers.google.com/places/web-service/search?hl=de#RadarSearchRequests
+     * places - nearby search - https://developers.google.com/places/web-service/search?hl=de#PlaceSearchRequests
      *
-     * @param latLong
-     * @return
+     * @param latLong: centers of the search circles
+     * @param radius:  search distance in meters
+     * @return future completed with the places found, identified by their unique google ids
      */
+    private CompletableFuture<List<PlaceDetail>> getNearbyPlacesAsync(List<LatLong> latLong, int radius) {
 
-    private ArrayList<String> getIDs(ArrayList<LatLong> latLong) {
-        ArrayList<String> ids = new ArrayList<>();
-
-        for(int i = 0; i < latLong.size(); i++) {
-            LatLong tmp = latLong.get(i);
-
-            try {
-                String radarString;
-                if(keyword != null) {
-                    radarString = String.format(radarUrl, URLEncoder.encode("" + tmp.getLat(), "UTF-8"),
-                                    URLEncoder.encode("" + tmp.getLong(), "UTF-8"),
-                                    URLEncoder.encode("" + radius, "UTF-8"), URLEncoder.encode(type, "UTF-8"),
-                                    URLEncoder.encode("" + keyword, "UTF-8"), URLEncoder.encode("" + apiKey, "UTF-8"));
-                } else {
-                    radarString = String.format(radarUrlNoKeyword, URLEncoder.encode("" + tmp.getLat(), "UTF-8"),
-                                    URLEncoder.encode("" + tmp.getLong(), "UTF-8"),
-                                    URLEncoder.encode("" + radius, "UTF-8"), URLEncoder.encode(type, "UTF-8"),
-                                    URLEncoder.encode("" + apiKey, "UTF-8"));
-                }
+        List<CompletableFuture<List<PlaceDetail>>> requests = new ArrayList<>(latLong.size());
+        for(LatLong tmp : latLong) {
+            requests.add(getNearbyPlacesAsync(tmp, radius));
+        }
 
-                //                System.out.println(radarString);
-                //do the json stuff
-                InputStream inputStream = null;
-                String json = "";
-
-                HttpClient client = new DefaultHttpClient();
-                HttpPost post = new HttpPost(radarString);
-                HttpResponse response = client.execute(post);
-                HttpEntity entity = response.getEntity();
-                inputStream = entity.getContent();
-
-                BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "utf-8"), 8);
-                StringBuilder sbuild = new StringBuilder();
-                String line = null;
-                while((line = reader.readLine()) != null) {
-                    sbuild.append(line);
+        return allOf(requests).thenApply(results -> {
+            Map<String, PlaceDetail> uniqePlaces = new LinkedHashMap<>(); //ensure unique ids
+            for(List<PlaceDetail> result : results) {
+                for(PlaceDetail place : result) {
+                    uniqePlaces.putIfAbsent(place.id, place);
                 }
-                inputStream.close();
-                json = sbuild.toString();
+            }
+            return new ArrayList<>(uniqePlaces.values());
+        });
+    }
 
-                //now parse
-                JSONParser parser = new JSONParser();
-                Object obj = parser.parse(json);
-                JSONObject jb = (JSONObject) obj;
+    private CompletableFuture<List<PlaceDetail>> getNearbyPlacesAsync(LatLong tmp, int radius) {
 
-                //now read
-                JSONArray jsonObject1 = (JSONArray) jb.get("results");
+        String radarString;
+        if(keyword != null) {
+            radarString = String.format(radarUrl, encode(tmp.getLat()), encode(tmp.getLong()), encode(radius),
+                            encode(type), encode(keyword), encode(apiKey));
+        } else {
+            radarString = String.format(radarUrlNoKeyword, encode(tmp.getLat()), encode(tmp.getLong()),
+                            encode(radius), encode(type), encode(apiKey));
+        }
 
-                //                System.out.println(jsonObject1.size());
+        //the url contains location, radius, type and keyword and thereby identifies the search circle
+        String location = tmp.getLat() + "," + tmp.getLong();
+        return radarFlights.execute(radarString,
+                        () -> fetchAsync(Endpoint.NEARBY_SEARCH, radarString, Collections.emptyMap(), "location",
+                                        location).thenApply(json -> {
+                            try {
+                                return parseNearbyPlaces(json);
+                            } catch(ParseException e) {
+                                throw new CompletionException(e);
+                            }
+                        }).exceptionally(e -> {
+                            logFailure("nearby_search_failed", "location", location, e);
+                            return Collections.emptyList();
+                        }));
+    }
 
-                for(int j = 0; j < jsonObject1.size(); j++) {
-                    JSONObject o = (JSONObject) jsonObject1.get(j);
-                    ids.add((String) o.get("place_id"));
-                }
+    private List<PlaceDetail> parseNearbyPlaces(String json) throws ParseException {
+        List<PlaceDetail> places = new ArrayList<>();
 
-            } catch(Exception e) {
-                e.printStackTrace();
-            }
+        //now parse
+        JSONParser parser = new JSONParser();
+        Object obj = parser.parse(json);
+        JSONObject jb = (JSONObject) obj;
+
+        //now read
+        JSONArray jsonObject1 = (JSONArray) jb.get("results");
+
+        for(int j = 0; j < jsonObject1.size(); j++) {
+            JSONObject o = (JSONObject) jsonObject1.get(j);
+            places.add(parsePlace((String) o.get("place_id"), o));
+        }
 
+        return Collections.unmodifiableList(places); // shared by coalesced lookups
+    }
+
+    /**
+     * requests detailed information about all provided places concurrently
+     *
+     * @param nearbyPlaces: all places that have to be searched for details
+     * @return future completed with detailed information of all places with popular times in the order of the places
+     */
+    private CompletableFuture<List<GooglePlace>> getDetailsAsync(List<PlaceDetail> nearbyPlaces) {
+
+        List<CompletableFuture<GooglePlace>> details = new ArrayList<>(nearbyPlaces.size());
+        for(PlaceDetail nearbyPlace : nearbyPlaces) {
+            details.add(getDetailAsync(nearbyPlace));
         }
 
-        return ids;
+        return allOf(details).thenApply(places -> {
+            List<GooglePlace> placesList = new ArrayList<>(places.size());
+            for(GooglePlace place : places) {
+                if(place != null)
+                    placesList.add(place);
+            }
+            return placesList;
+        });
     }
 
     /**
      * requests detailed information from the google API based on the provided ID
      * places api - detail search - https://developers.google.com/places/web-service/details?hl=de
+     * <p>
+     * Only the fields used by the crawler are requested. If {@link CrawlerConfig#isReuseNearbyFields()} is enabled, the
+     * fields already known from the nearby search are not requested again and google/search is queried with the
+     * vicinity of the nearby search. The formatted address is then only requested for places that are returned, if
+     * this request fails the place is returned with its vicinity as address.
      *
-     * @param ids: ArrayList<String> with all places ids that have to be searched for details
-     * @return: ArrayList<GooglePlace> with detailed information about popular times and more
+     * @param nearbyPlace: the place that has to be searched for details, at least its id has to be known
+     * @return: future completed with detailed information about popular times and more or with null if the place has
+     * been filtered, has no popular times or the requests failed
      */
-    private ArrayList<GooglePlace> getDetail(ArrayList<String> ids) {
+    private CompletableFuture<GooglePlace> getDetailAsync(PlaceDetail nearbyPlace) {
+        return placeFlights.execute(nearbyPlace.id, () -> fetchDetailAsync(nearbyPlace));
+    }
 
-        for(int i = 0; i < ids.size(); i++) {
+    private CompletableFuture<GooglePlace> fetchDetailAsync(PlaceDetail nearbyPlace) {
+
+        PlaceDetail known = reuseNearbyFields ? nearbyPlace : PlaceDetail.ofId(nearbyPlace.id);
+
+        //filter as early as possible to avoid needless requests
+        if(known.name != null && isFiltered(known.id, known.name))
+            return CompletableFuture.completedFuture(null);
+
+        CompletableFuture<PlaceDetail> detailFuture =
+                        known.isSearchable() ? CompletableFuture.completedFuture(known) : completeDetailAsync(known);
+
+        return detailFuture.thenCompose(detail -> {
+            if(known.name == null && isFiltered(detail.id, detail.name))
+                return CompletableFuture.completedFuture(null);
+
+            return getSearchDataAsync(detail.name, detail.getSearchAddress()) //get data from search request
+                            .handle((data, e) -> {
+                                if(e == null)
+                                    return toGooglePlace(detail, data);
+
+                                //google/search failed or has been rejected, e.g. by an open circuit breaker
+                                if(detailOnlyFallback && unwrap(e) instanceof IOException) {
+                                    log.debug("event=popular_times_pending endpoint={} placeId={} outcome={}",
+                                                    Endpoint.SEARCH, detail.id, outcome(e));
+                                    return toPendingGooglePlace(detail);
+                                }
+                                throw e instanceof CompletionException ? (CompletionException) e :
+                                      new CompletionException(e);
+                            }).thenCompose(place -> {
+                                //places without popular times are dropped and do not need the remaining fields
+                                if(place == null || detail.getMissingFields().isEmpty())
+                                    return CompletableFuture.completedFuture(place);
+                                return completeDetailAsync(detail).thenApply(full -> withDetail(place, full))
+                                                .exceptionally(e -> {
+                                                    //keep the scraped popular times, use the vicinity as address
+                                                    logFailure("address_failed", "placeId", detail.id, e);
+                                                    return withDetail(place, detail);
+                                                });
+                            });
+        }).exceptionally(e -> {
+            logFailure("place_failed", "placeId", nearbyPlace.id, e);
+            return null;
+        });
+    }
 
-            String id = ids.get(i);
+    /**
+     * requests the missing fields of the provided place from the details api
+     *
+     * @return future completed with a copy of the place containing all fields
+     */
+    private CompletableFuture<PlaceDetail> completeDetailAsync(PlaceDetail known) {
+        String detailString = String.format(detailUrl, encode(known.id),
+                        encode(String.join(",", known.getMissingFields())), encode(apiKey));
+
+        return fetchAsync(Endpoint.DETAILS, detailString, Collections.emptyMap(), "placeId", known.id)
+                        .thenApply(json -> {
+                            try {
+                                return known.merge(parseDetail(known.id, json));
+                            } catch(ParseException e) {
+                                throw new CompletionException(e);
+                            }
+                        });
+    }
 
-            try {
-                String detailString = String.format(detailUrl, URLEncoder.encode("" + id, "UTF-8"),
-                                URLEncoder.encode("" + apiKey, "UTF-8"));
+    /**
+     * if we have post filter enabled and keyword != null, filter the results
+     *
+     * @return true if the place has to be skipped due to filter settings
+     */
+    private boolean isFiltered(String id, String name) {
+        if(postFilter && keyword != null && !(name.toLowerCase().contains(keyword.toLowerCase()))) {
+            log.debug("event=place_filtered placeId={} name=\"{}\" keyword=\"{}\"", id, name, keyword);
+            return true;
+        }
+        return false;
+    }
 
-                //                System.out.println(detailString);
-                InputStream inputStream = null;
-                String json = "";
-                double rating = -1.0;
-                int reviews = -1;
+    private PlaceDetail parseDetail(String id, String json) throws ParseException {
 
-                HttpClient client = new DefaultHttpClient();
-                HttpPost post = new HttpPost(detailString);
-                HttpResponse response = client.execute(post);
-                HttpEntity entity = response.getEntity();
-                inputStream = entity.getContent();
+        //now parse
+        JSONParser parser = new JSONParser();
+        Object obj = parser.parse(json);
+        JSONObject jb = (JSONObject) obj;
 
-                BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "utf-8"), 8);
-                StringBuilder sbuild = new StringBuilder();
-                String line = null;
-                while((line = reader.readLine()) != null) {
-                    sbuild.append(line);
-                }
-                inputStream.close();
-                json = sbuild.toString();
+        //now read
+        return parsePlace(id, (JSONObject) jb.get("result"));
+    }
 
-                //now parse
-                JSONParser parser = new JSONParser();
-                Object obj = parser.parse(json);
-                JSONObject jb = (JSONObject) obj;
+    /**
+     * reads the place information of a nearby search or details result, fields not contained in the result are null
+     */
+    private PlaceDetail parsePlace(String id, JSONObject jsonObject1) {
+
+        String name = (String) jsonObject1.get("name"); //location name
+        String formattedAddress = (String) jsonObject1.get("formatted_address"); //full location address
+        String vicinity = (String) jsonObject1.get("vicinity"); //short address, only part of nearby search results
+
+        //get the types and convert them
+        String[] types = null;
+        JSONArray jtypes = (JSONArray) jsonObject1.get("types");
+        if(jtypes != null) {
+            types = new String[jtypes.size()];
+            for(int k = 0; k < jtypes.size(); k++) {
+                types[k] = (String) jtypes.get(k);
+            }
+        }
 
-                //now read
-                JSONObject jsonObject1 = (JSONObject) jb.get("result");
+        LatLong latLong = null;
+        JSONObject geometry = (JSONObject) jsonObject1.get("geometry");
+        if(geometry != null && geometry.get("location") != null) {
+            JSONObject location = (JSONObject) geometry.get("location");
+            latLong = new LatLong(((Number) location.get("lat")).doubleValue(),
+                            ((Number) location.get("lng")).doubleValue());
+        }
 
-                String name = (String) jsonObject1.get("name"); //location name
+        //only part of nearby search results
+        Double rating = jsonObject1.get("rating") == null ? null : ((Number) jsonObject1.get("rating")).doubleValue();
+        Integer reviews = jsonObject1.get("user_ratings_total") == null ? null :
+                          ((Number) jsonObject1.get("user_ratings_total")).intValue();
 
-                if(postFilter &&
-                   keyword != null) //if we have post filter enabled and keyword != null, filter the results
-                    if(!(name.toLowerCase().contains(keyword.toLowerCase()))) {
-                        System.out.println("Skipped " + name + " due to filter settings.");
-                        continue;
-                    }
+        return new PlaceDetail(id, name, formattedAddress, vicinity, types, latLong, rating, reviews);
+    }
 
-                String formattedAddress = (String) jsonObject1.get("formatted_address"); //full location address
-                //get the types and convert them
-                JSONArray jtypes = (JSONArray) jsonObject1.get("types");
-                String[] types = new String[jtypes.size()];
-                for(int k = 0; k < jtypes.size(); k++) {
-                    types[k] = (String) jtypes.get(k);
+    /**
+     * combines the place details with the data from google/search
+     *
+     * @return the place or null if no popular times are available
+     */
+    private GooglePlace toGooglePlace(PlaceDetail detail, JSONArray data) {
+
+        double rating = -1.0;
+        int reviews = -1;
+
+        //size == 11 means no interesting information available
+        //has to be corrected if google changes something
+        if(((JSONArray) ((JSONArray) ((JSONArray) data.get(0)).get(1)).get(0)).size() > 11 &&
+           (JSONArray) ((JSONArray) ((JSONArray) ((JSONArray) data.get(0)).get(1)).get(0)) != null) {
+            //get information array
+            JSONArray info = (JSONArray) ((JSONArray) ((JSONArray) ((JSONArray) data.get(0)).get(1)).get(0)).get(14);
+            if(info.get(4) != null) {
+                if(((JSONArray) info.get(4)).get(7) != null) {
+                    rating = (double) ((JSONArray) info.get(4)).get(7);
                 }
-                LatLong latLong = new LatLong(((double) ((JSONObject) ((JSONObject) (jsonObject1.get("geometry")))
-                                .get("location")).get("lat")),
-                                ((double) ((JSONObject) ((JSONObject) (jsonObject1.get("geometry"))).get("location"))
-                                                .get("lng")));
-
-                JSONArray data = getSearchData((String) jsonObject1.get("name"),
-                                (String) jsonObject1.get("formatted_address")); //get data from search request
-
-                //size == 11 means no interesting information available
-                //has to be corrected if google changes something
-                if(((JSONArray) ((JSONArray) ((JSONArray) data.get(0)).get(1)).get(0)).size() > 11 &&
-                   (JSONArray) ((JSONArray) ((JSONArray) ((JSONArray) data.get(0)).get(1)).get(0)) != null) {
-                    //get information array
-                    JSONArray info = (JSONArray) ((JSONArray) ((JSONArray) ((JSONArray) data.get(0)).get(1)).get(0))
-                                    .get(14);
-                    if(info.get(4) != null) {
-                        if(((JSONArray) info.get(4)).get(7) != null) {
-                            rating = (double) ((JSONArray) info.get(4)).get(7);
-                        }
-
-                        if(((JSONArray) info.get(4)).get(8) != null) {
-                            reviews = (int) ((long) ((JSONArray) info.get(4)).get(8));
-                        }
-                    }
 
-                    System.out.println(name);
-                    System.out.println(formattedAddress);
-                    if(info.get(84) == null) {
-                        System.out.println("No information on popular times available!");
-                    } else {
-                        JSONArray jpopularTimes = (JSONArray) ((JSONArray) info.get(84)).get(0); //get popular times
-
-                        //map popularTimes
-                        Map<Integer, Map<Long, Double>> popularTimes = mapPopularTimes(jpopularTimes);
-
-                        //create new googlePlaces object and fill it with data
-                        GooglePlace place = new GooglePlace(name, formattedAddress, id, popularTimes, rating, latLong,
-                                        types, reviews);
-
-                        //add it to ArrayList<GooglePlace>
-                        placesList.add(place);
-
-                        //print one element
-                        //                System.out.println(placesList.get(0).getName());
-                        //                Map<Integer, Map<Long, Double>> pop = placesList.get(0).getPopularTimes();
-                        //                for(int z = 0; z < pop.size(); z++) {
-                        //                    Map<Long, Double> usages = pop.get(z);
-                        //                    System.out.println("Day " + z);
-                        //                    for(long u = 0; u < usages.size(); u++) {
-                        //                        double usage = usages.get(u);
-                        //                        for(int o= 0; o < (int)(usage/2); o++){
-                        //                            System.out.print("=");
-                        //                        }
-                        //                        System.out.print(" " + usage);
-                        //                        System.out.println();
-                        //                    }
-                        //                    System.out.println();
-                        //                }
-                    }
+                if(((JSONArray) info.get(4)).get(8) != null) {
+                    reviews = (int) ((long) ((JSONArray) info.get(4)).get(8));
                 }
-
-            } catch(Exception e) {
-                e.printStackTrace();
             }
 
+            //fall back to the values of the nearby search
+            if(rating < 0 && detail.rating != null)
+                rating = detail.rating;
+            if(reviews < 0 && detail.reviews != null)
+                reviews = detail.reviews;
+
+            if(info.get(84) == null) {
+                log.debug("event=place_crawled placeId={} name=\"{}\" address=\"{}\" popularTimes=false",
+                                detail.id, detail.name, detail.getSearchAddress());
+            } else {
+                log.debug("event=place_crawled placeId={} name=\"{}\" address=\"{}\" popularTimes=true",
+                                detail.id, detail.name, detail.getSearchAddress());
+
+                JSONArray jpopularTimes = (JSONArray) ((JSONArray) info.get(84)).get(0); //get popular times
+
+                //map popularTimes
+                Map<Integer, Map<Long, Double>> popularTimes = mapPopularTimes(detail.id, jpopularTimes);
+
+                //create new googlePlaces object and fill it with data
+                return new GooglePlace(detail.name, detail.formattedAddress, detail.id, popularTimes, rating,
+                                detail.latLong, detail.types, reviews);
+            }
         }
-        return placesList;
+
+        return null;
+    }
+
+    /**
+     * creates a place without popular times that is marked for a later backfill of its popular times
+     */
+    private GooglePlace toPendingGooglePlace(PlaceDetail detail) {
+        return new GooglePlace(detail.name, detail.formattedAddress, detail.id, Collections.emptyMap(),
+                        detail.rating != null ? detail.rating : -1.0, detail.latLong, detail.types,
+                        detail.reviews != null ? detail.reviews : -1, true);
+    }
+
+    /**
+     * @return a copy of the place with name, address, location and types taken from the provided details, the
+     * vicinity is used as address if the formatted address is not known
+     */
+    private static GooglePlace withDetail(GooglePlace place, PlaceDetail detail) {
+        return new GooglePlace(detail.name, detail.getSearchAddress(), detail.id, place.getPopularTimes(),
+                        place.getRating(), detail.latLong, detail.types, place.getReview(),
+                        place.isPopularTimesPending());
     }
 
     /**
      * Converts the extracted popularTimes json data to a corresponding hashMap starting with a 0 as key for sunday and
      * 24 hours of usages
      *
+     * @param placeId:       id of the place the popular times belong to
      * @param jpopularTimes
      * @return
      */
-    private Map<Integer, Map<Long, Double>> mapPopularTimes(JSONArray jpopularTimes) {
+    private Map<Integer, Map<Long, Double>> mapPopularTimes(String placeId, JSONArray jpopularTimes) {
 
         Map<Integer, Map<Long, Double>> map = new HashMap<>();
 
@@ -431,7 +630,7 @@ public class PopularTimesCrawler {
             JSONArray day = (JSONArray) jpopularTimes.get(i);
             JSONArray hours = (JSONArray) day.get(1);
             if(hours == null) {
-                System.out.println("Day " + i + " is closed or not enough data available.");
+                log.trace("event=day_without_popular_times placeId={} day={}", placeId, i); //closed or not enough data
                 map.put(i, usages);
             } else {
                 for(int j = 0; j < hours.size(); j++) {
@@ -452,70 +651,142 @@ public class PopularTimesCrawler {
      *
      * @param name:             string with place name
      * @param formattedAddress: string with place address
+     * @return future completed with the data or exceptionally if the request failed, the array is shared by
+     * concurrent lookups of the same place and must not be modified
      */
-    private JSONArray getSearchData(String name, String formattedAddress) {
+    private CompletableFuture<JSONArray> getSearchDataAsync(String name, String formattedAddress) {
 
-        JSONArray data = new JSONArray();
-        try {
-            String tbm = "map";
-            String hl = "de";
-            String tch = "1";
-            String q = name + " " + formattedAddress;
+        String tbm = "map";
+        String hl = "de";
+        String tch = "1";
+        String q = name + " " + formattedAddress;
 
-            String appender = "tbm=" + tbm + "&hl=" + hl + "&tch=" + tch + "&q=" + URLEncoder.encode(q, "UTF-8");
-            String searchUrl = "https://www.google.de/search?" + appender;
+        String appender = "tbm=" + tbm + "&hl=" + hl + "&tch=" + tch + "&q=" + encode(q);
+        String searchString = String.format(searchUrl, appender);
 
-            //            System.out.println(searchUrl);
+        return searchFlights.execute(q, () -> fetchAsync(Endpoint.SEARCH, searchString,
+                        Collections.singletonMap("User-Agent", userAgent), "query", q).thenApply(json -> {
+                            try {
+                                return parseSearchData(json);
+                            } catch(ParseException e) {
+                                throw new CompletionException(e);
+                            }
+                        }));
 
-            URL url1 = new URL(searchUrl);
-            URLConnection connection = url1.openConnection();
-            connection.setRequestProperty("User-Agent", userAgent);
-            connection.connect();
+    }
 
-            InputStream response = connection.getInputStream();
+    private JSONArray parseSearchData(String json) throws ParseException {
 
-            String json = "";
-            BufferedReader reader = new BufferedReader(new InputStreamReader(response, "utf-8"), 8);
-            StringBuilder sbuild = new StringBuilder();
-            String line = null;
-            while((line = reader.readLine()) != null) {
-                sbuild.append(line);
-            }
-            response.close();
-            json = sbuild.toString();
+        int jEnd = json.lastIndexOf("}");
+        if(jEnd >= 0)
+            json = json.substring(0, jEnd + 1);
 
-            int jEnd = json.lastIndexOf("}");
-            if(jEnd >= 0)
-                json = json.substring(0, jEnd + 1);
+        //now parse
+        JSONParser parser = new JSONParser();
+        Object obj = parser.parse(json);
+        JSONObject jb = (JSONObject) obj;
 
-            //now parse
-            JSONParser parser = new JSONParser();
-            Object obj = parser.parse(json);
-            JSONObject jb = (JSONObject) obj;
+        //now read
+        String jdata = (String) jb.get("d"); //read the data String
+        jdata = jdata.substring(4, jdata.length()); //cut it to get the JSONArray again
 
-            //now read
-            String jdata = (String) jb.get("d"); //read the data String
-            jdata = jdata.substring(4, jdata.length()); //cut it to get the JSONArray again
+        //reparse
+        Object ob = parser.parse(jdata);
+        return (JSONArray) ob;
+    }
 
-            //reparse
-            Object ob = parser.parse(jdata);
-            data = (JSONArray) ob;
+    /**
+     * executes the request via the transport and logs endpoint, latency and outcome. The returned future is completed
+     * on the callback executor, so parsing and all further stages do not run on the I/O threads of the transport.
+     *
+     * @param subjectKey: name of the value identifying the subject of the request, e.g. placeId
+     * @param subject:    value identifying the subject of the request
+     */
+    private CompletableFuture<String> fetchAsync(Endpoint endpoint,
+                                                 String url,
+                                                 Map<String, String> headers,
+                                                 String subjectKey,
+                                                 Object subject) {
+        if(!log.isDebugEnabled())
+            return transport.fetchAsync(endpoint, url, headers).whenCompleteAsync((body, e) -> {}, callbackExecutor);
+
+        long start = System.nanoTime();
+        return transport.fetchAsync(endpoint, url, headers).whenCompleteAsync(
+                        (body, e) -> log.debug("event=request endpoint={} {}=\"{}\" latencyMs={} outcome={}", endpoint,
+                                        subjectKey, subject, (System.nanoTime() - start) / 1000000, outcome(e)),
+                        callbackExecutor);
+    }
 
-        } catch(Exception e) {
-            e.printStackTrace();
-        }
+    /**
+     * logs a failed crawl step, stack traces are only logged for unexpected failures and not for failed requests
+     */
+    private static void logFailure(String event, String subjectKey, Object subject, Throwable e) {
+        Throwable cause = unwrap(e);
+        if(cause instanceof IOException)
+            log.warn("event={} {}=\"{}\" outcome={} error=\"{}\"", event, subjectKey, subject, outcome(e),
+                            cause.getMessage());
+        else
+            log.warn("event={} {}=\"{}\" outcome={}", event, subjectKey, subject, outcome(e), cause);
+    }
 
-        return data;
+    /**
+     * @return short description of the outcome of a request for the logs
+     */
+    private static String outcome(Throwable e) {
+        if(e == null)
+            return "ok";
+        Throwable cause = unwrap(e);
+        if(cause instanceof HttpStatusException)
+            return "status_" + ((HttpStatusException) cause).getStatusCode();
+        if(cause instanceof CallNotPermittedException)
+            return "rejected";
+        if(cause instanceof ParseException)
+            return "unparsable";
+        return "error";
+    }
 
+    private static String encode(Object value) {
+        try {
+            return URLEncoder.encode("" + value, "UTF-8");
+        } catch(UnsupportedEncodingException e) {
+            throw new IllegalStateException(e); // UTF-8 is always supported
+        }
     }
 
     /**
-     * Set optional keyword parameter
-     *
-     * @param keyword
+     * @return future completed with the results of all provided futures in their order
      */
-    public void setKeyword(String keyword) {
-        this.keyword = keyword;
+    private static <T> CompletableFuture<List<T>> allOf(List<CompletableFuture<T>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(v -> {
+            List<T> results = new ArrayList<>(futures.size());
+            for(CompletableFuture<T> future : futures) {
+                results.add(future.join());
+            }
+            return results;
+        });
+    }
+
+    /**
+     * waits for the future and rethrows unchecked exceptions without the wrapping CompletionException
+     */
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch(CompletionException e) {
+            Throwable cause = unwrap(e);
+            if(cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if(cause instanceof Error)
+                throw (Error) cause;
+            throw e;
+        }
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        while(e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
     }
 
     /**
@@ -619,17 +890,87 @@ public class PopularTimesCrawler {
             fileOut.close();
 
         } catch(Exception e) {
-            e.printStackTrace();
+            log.error("event=xls_export_failed places={}", placesList.size(), e);
         }
     }
 
+
     /**
-     * if true and keyword is provided, the results will be filtered to ensure that name contains keyword
-     *
-     * @param postFilter
+     * place information received from the places api, fields not received yet are null
      */
-    public void setPostFilter(boolean postFilter) {
-        this.postFilter = postFilter;
+    private static class PlaceDetail {
+
+        private final String   id;
+        private final String   name;
+        private final String   formattedAddress;
+        private final String   vicinity; // only provided by the nearby search
+        private final String[] types;
+        private final LatLong  latLong;
+        private final Double   rating;  // only provided by the nearby search
+        private final Integer  reviews; // only provided by the nearby search
+
+        PlaceDetail(String id,
+                    String name,
+                    String formattedAddress,
+                    String vicinity,
+                    String[] types,
+                    LatLong latLong,
+                    Double rating,
+                    Integer reviews) {
+            this.id = id;
+            this.name = name;
+            this.formattedAddress = formattedAddress;
+            this.vicinity = vicinity;
+            this.types = types;
+            this.latLong = latLong;
+            this.rating = rating;
+            this.reviews = reviews;
+        }
+
+        static PlaceDetail ofId(String id) {
+            return new PlaceDetail(id, null, null, null, null, null, null, null);
+        }
+
+        /**
+         * @return the address used to query google/search, the vicinity is used as long as the formatted address is
+         * not known
+         */
+        String getSearchAddress() {
+            return formattedAddress != null ? formattedAddress : vicinity;
+        }
+
+        /**
+         * @return true if name and address required to query google/search are known
+         */
+        boolean isSearchable() {
+            return name != null && getSearchAddress() != null;
+        }
+
+        /**
+         * @return the details api fields required by the crawler that are not known yet
+         */
+        List<String> getMissingFields() {
+            List<String> fields = new ArrayList<>(4);
+            if(name == null)
+                fields.add("name");
+            if(formattedAddress == null)
+                fields.add("formatted_address");
+            if(types == null)
+                fields.add("types");
+            if(latLong == null)
+                fields.add("geometry/location");
+            return fields;
+        }
+
+        /**
+         * @return a copy of this place with the missing fields taken from the other place
+         */
+        PlaceDetail merge(PlaceDetail other) {
+            return new PlaceDetail(id, name != null ? name : other.name,
+                            formattedAddress != null ? formattedAddress : other.formattedAddress,
+                            vicinity != null ? vicinity : other.vicinity,
+                            types != null ? types : other.types, latLong != null ? latLong : other.latLong,
+                            rating != null ? rating : other.rating, reviews != null ? reviews : other.reviews);
+        }
     }
 }
-
@@ -0,0 +1,428 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes.history;
+
+import com.github.johanneshiry.populartimes.utils.GooglePlace;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Local append-only history of {@link PlaceSnapshot}s, e.g. of weekly crawls. Every place is stored in its own file
+ * inside the store directory. Successive snapshots are delta encoded against their predecessor (see
+ * {@link SnapshotCodec}), a full keyframe is written every {@code keyframeInterval} snapshots. The offsets of the
+ * keyframes are kept in memory, so range reads only decode the snapshots from the keyframe preceding the range on.
+ * <p>
+ * Snapshots of a place have to be appended in chronological order. A record left incomplete by a crash, i.e. a last
+ * record whose length exceeds the end of the file, is discarded when the place is accessed the next time. Complete but
+ * corrupt records are never discarded, accessing the place fails with an {@link IOException} instead. The store is
+ * thread safe within one process.
+ */
+public class PlaceHistoryStore {
+
+    private static final String FILE_SUFFIX = ".hist";
+
+    private static final int DEFAULT_KEYFRAME_INTERVAL = 52; // one keyframe per year of weekly crawls
+
+    private final Path directory;
+    private final int  keyframeInterval;
+
+    private final ConcurrentMap<String, PlaceLog> logs = new ConcurrentHashMap<>();
+
+    public PlaceHistoryStore(Path directory) throws IOException {
+        this(directory, DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    /**
+     * @param directory:        directory of the history files, created if not existing
+     * @param keyframeInterval: max number of snapshots between two keyframes
+     */
+    public PlaceHistoryStore(Path directory, int keyframeInterval) throws IOException {
+        if(keyframeInterval < 1)
+            throw new IllegalArgumentException("Keyframe interval has to be positive.");
+        this.directory = Files.createDirectories(directory);
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * Appends a snapshot of the provided place. Places with pending popular times (see
+     * {@link GooglePlace#isPopularTimesPending()}) are skipped, as their empty popular times would be stored as a
+     * week without any visitors.
+     *
+     * @param place:     the crawled place
+     * @param timestamp: epoch millis of the crawl
+     * @return true if a snapshot has been appended, false if the place has been skipped
+     */
+    public boolean append(GooglePlace place, long timestamp) throws IOException {
+        if(place.isPopularTimesPending())
+            return false;
+        append(PlaceSnapshot.of(place, timestamp));
+        return true;
+    }
+
+    /**
+     * Appends the snapshot to the history of its place
+     *
+     * @throws IllegalArgumentException if the snapshot is older than the latest snapshot of the place
+     */
+    public void append(PlaceSnapshot snapshot) throws IOException {
+        log(snapshot.getPlaceId()).append(snapshot);
+    }
+
+    /**
+     * @return all snapshots of the place in chronological order
+     */
+    public List<PlaceSnapshot> read(String placeId) throws IOException {
+        return read(placeId, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param from: epoch millis, inclusive
+     * @param to:   epoch millis, inclusive
+     * @return the snapshots of the place taken between from and to in chronological order
+     */
+    public List<PlaceSnapshot> read(String placeId, long from, long to) throws IOException {
+        return log(placeId).read(from, to);
+    }
+
+    /**
+     * @return the latest snapshot of the place or null if there is none
+     */
+    public PlaceSnapshot latest(String placeId) throws IOException {
+        return log(placeId).latest();
+    }
+
+    /**
+     * @return ids of all places with history
+     */
+    public Set<String> getPlaceIds() throws IOException {
+        Set<String> ids = new TreeSet<>();
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+            for(Path file : files) {
+                String name = file.getFileName().toString();
+                ids.add(URLDecoder.decode(name.substring(0, name.length() - FILE_SUFFIX.length()), "UTF-8"));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Rewrites the history of the place: drops snapshots older than retainFrom and snapshots equal to their
+     * predecessor except for the timestamp, then re-encodes the remaining ones with regular keyframes. The history
+     * file is replaced atomically and deleted if no snapshot remains.
+     *
+     * @param retainFrom: epoch millis, snapshots before are dropped, use Long.MIN_VALUE to keep all
+     */
+    public void compact(String placeId, long retainFrom) throws IOException {
+        log(placeId).compact(retainFrom);
+    }
+
+    /**
+     * {@link #compact(String, long)} for all places with history
+     */
+    public void compactAll(long retainFrom) throws IOException {
+        for(String placeId : getPlaceIds()) {
+            compact(placeId, retainFrom);
+        }
+    }
+
+    private PlaceLog log(String placeId) throws UnsupportedEncodingException {
+        PlaceLog log = logs.get(placeId);
+        if(log == null) {
+            Path file = directory.resolve(URLEncoder.encode(placeId, "UTF-8") + FILE_SUFFIX);
+            PlaceLog created = new PlaceLog(placeId, file);
+            log = logs.putIfAbsent(placeId, created);
+            if(log == null)
+                log = created;
+        }
+        return log;
+    }
+
+    /**
+     * history file of one place together with its keyframe index
+     */
+    private class PlaceLog {
+
+        private final String placeId;
+        private final Path   file;
+
+        private boolean       loaded;
+        private PlaceSnapshot latest;                         // last snapshot in the file
+        private int           sinceKeyframe;                  // snapshots written after the last keyframe
+        private long[]        keyframeTimestamps = new long[0];
+        private long[]        keyframeOffsets    = new long[0];
+        private int           keyframes;
+
+        PlaceLog(String placeId, Path file) {
+            this.placeId = placeId;
+            this.file = file;
+        }
+
+        synchronized void append(PlaceSnapshot snapshot) throws IOException {
+            load();
+            if(latest != null && snapshot.getTimestamp() < latest.getTimestamp())
+                throw new IllegalArgumentException(
+                                "Snapshot of " + placeId + " at " + snapshot.getTimestamp() + " is older than the " +
+                                "latest snapshot at " + latest.getTimestamp());
+
+            boolean keyframe = latest == null || sinceKeyframe + 1 >= keyframeInterval;
+            byte[] record = SnapshotCodec.encode(snapshot, keyframe ? null : latest);
+
+            try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                long offset = channel.size();
+                if(offset == 0) {
+                    writeFully(channel, ByteBuffer.wrap(SnapshotCodec.MAGIC), 0);
+                    offset = SnapshotCodec.MAGIC.length;
+                }
+                writeFully(channel, ByteBuffer.wrap(record), offset);
+                if(keyframe)
+                    addKeyframe(snapshot.getTimestamp(), offset);
+            }
+
+            sinceKeyframe = keyframe ? 0 : sinceKeyframe + 1;
+            latest = snapshot;
+        }
+
+        synchronized PlaceSnapshot latest() throws IOException {
+            load();
+            return latest;
+        }
+
+        synchronized List<PlaceSnapshot> read(long from, long to) throws IOException {
+            load();
+            if(keyframes == 0 || from > to || to < keyframeTimestamps[0] || from > latest.getTimestamp())
+                return Collections.emptyList();
+
+            //start at the last keyframe strictly before the range, snapshots with equal timestamps may precede it
+            int start = 0;
+            for(int i = keyframes - 1; i > 0; i--) {
+                if(keyframeTimestamps[i] < from) {
+                    start = i;
+                    break;
+                }
+            }
+
+            List<PlaceSnapshot> snapshots = new ArrayList<>();
+            ByteBuffer buffer = readFrom(keyframeOffsets[start]);
+            PlaceSnapshot previous = null;
+            while(buffer.hasRemaining()) {
+                long offset = keyframeOffsets[start] + buffer.position();
+                ByteBuffer payload = nextPayload(buffer, offset);
+                if(payload == null)
+                    break;
+                PlaceSnapshot snapshot = decode(payload, previous, offset);
+                if(snapshot.getTimestamp() > to)
+                    break;
+                if(snapshot.getTimestamp() >= from)
+                    snapshots.add(snapshot);
+                previous = snapshot;
+            }
+            return snapshots;
+        }
+
+        synchronized void compact(long retainFrom) throws IOException {
+            load();
+            List<PlaceSnapshot> retained = new ArrayList<>();
+            for(PlaceSnapshot snapshot : read(retainFrom, Long.MAX_VALUE)) {
+                PlaceSnapshot previous = retained.isEmpty() ? null : retained.get(retained.size() - 1);
+                if(previous == null || !sameValues(previous, snapshot))
+                    retained.add(snapshot);
+            }
+
+            reset();
+            if(retained.isEmpty()) {
+                Files.deleteIfExists(file);
+                loaded = true;
+                return;
+            }
+
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.deleteIfExists(tmp);
+            try {
+                //write the compacted history to the temporary file by appending to it
+                PlaceLog compacted = new PlaceLog(placeId, tmp);
+                compacted.loaded = true;
+                for(PlaceSnapshot snapshot : retained) {
+                    compacted.append(snapshot);
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+
+        private boolean sameValues(PlaceSnapshot a, PlaceSnapshot b) {
+            return Double.compare(a.getRating(), b.getRating()) == 0 && a.getReviews() == b.getReviews() &&
+                   Arrays.equals(a.usages(), b.usages());
+        }
+
+        /**
+         * scans the file once to build the keyframe index and to find the latest snapshot. A last record exceeding the
+         * end of the file has been cut off while appending it and is truncated.
+         *
+         * @throws IOException if the file contains a corrupt record, the file is left unchanged in this case
+         */
+        private void load() throws IOException {
+            if(loaded)
+                return;
+            reset();
+
+            if(Files.exists(file)) {
+                ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+                long validEnd = 0;
+                if(buffer.remaining() >= SnapshotCodec.MAGIC.length) {
+                    byte[] magic = new byte[SnapshotCodec.MAGIC.length];
+                    buffer.get(magic);
+                    if(!Arrays.equals(magic, SnapshotCodec.MAGIC))
+                        throw new IOException(file + " is no place history file.");
+                    validEnd = buffer.position();
+
+                    while(buffer.hasRemaining()) {
+                        int offset = buffer.position();
+                        ByteBuffer payload = nextPayload(buffer, offset);
+                        if(payload == null)
+                            break; // cut off by a crash while appending, truncated below
+                        boolean keyframe = SnapshotCodec.isKeyframe(payload);
+                        latest = decode(payload, latest, offset);
+                        if(keyframe) {
+                            addKeyframe(latest.getTimestamp(), offset);
+                            sinceKeyframe = 0;
+                        } else {
+                            sinceKeyframe++;
+                        }
+                        validEnd = buffer.position();
+                    }
+                }
+
+                if(validEnd < buffer.limit()) {
+                    try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                        channel.truncate(validEnd);
+                    }
+                }
+            }
+            loaded = true;
+        }
+
+        private void reset() {
+            loaded = false;
+            latest = null;
+            sinceKeyframe = 0;
+            keyframes = 0;
+        }
+
+        private void addKeyframe(long timestamp, long offset) {
+            if(keyframes == keyframeOffsets.length) {
+                int capacity = Math.max(8, keyframes * 2);
+                keyframeTimestamps = Arrays.copyOf(keyframeTimestamps, capacity);
+                keyframeOffsets = Arrays.copyOf(keyframeOffsets, capacity);
+            }
+            keyframeTimestamps[keyframes] = timestamp;
+            keyframeOffsets[keyframes] = offset;
+            keyframes++;
+        }
+
+        private ByteBuffer readFrom(long offset) throws IOException {
+            try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) (channel.size() - offset));
+                while(buffer.hasRemaining()) {
+                    if(channel.read(buffer, offset + buffer.position()) < 0)
+                        break;
+                }
+                ((Buffer) buffer).flip(); // cast keeps the byte code compatible with java 8
+                return buffer;
+            }
+        }
+
+        /**
+         * @param offset: offset of the record in the file, for error messages
+         * @return the payload of the next record or null if the record exceeds the end of the file
+         * @throws IOException if the length of the record is invalid
+         */
+        private ByteBuffer nextPayload(ByteBuffer buffer, long offset) throws IOException {
+            long length;
+            try {
+                length = SnapshotCodec.readVarLong(buffer);
+            } catch(BufferUnderflowException e) {
+                return null; // length prefix cut off
+            } catch(IllegalStateException e) {
+                throw new IOException("Corrupt record length at offset " + offset + " of " + file, e);
+            }
+            if(length <= 0 || length > Integer.MAX_VALUE)
+                throw new IOException("Invalid record length " + length + " at offset " + offset + " of " + file);
+            if(length > buffer.remaining())
+                return null;
+
+            ByteBuffer payload = buffer.slice();
+            ((Buffer) payload).limit((int) length);
+            ((Buffer) buffer).position(buffer.position() + (int) length);
+            return payload;
+        }
+
+        /**
+         * @param offset: offset of the record in the file, for error messages
+         * @throws IOException if the record is corrupt
+         */
+        private PlaceSnapshot decode(ByteBuffer payload, PlaceSnapshot previous, long offset) throws IOException {
+            try {
+                return SnapshotCodec.decode(placeId, payload, previous);
+            } catch(RuntimeException e) {
+                throw new IOException("Corrupt record at offset " + offset + " of " + file, e);
+            }
+        }
+
+        private void writeFully(FileChannel channel, ByteBuffer bytes, long position) throws IOException {
+            while(bytes.hasRemaining()) {
+                position += channel.write(bytes, position);
+            }
+        }
+    }
+}
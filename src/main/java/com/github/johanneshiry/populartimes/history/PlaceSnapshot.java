@@ -0,0 +1,188 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes.history;
+
+import com.github.johanneshiry.populartimes.utils.GooglePlace;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Popular times, rating and number of reviews of a place at one point in time as stored by the
+ * {@link PlaceHistoryStore}. Usages are stored as whole percent values for 7 days (0 = sunday) and 24 hours.
+ */
+public class PlaceSnapshot {
+
+    public static final int DAYS  = 7;
+    public static final int HOURS = 24;
+    static final        int CELLS = DAYS * HOURS;
+
+    private final String placeId;
+    private final long   timestamp; // epoch millis of the crawl
+    private final double rating;    // -1 if unknown
+    private final int    reviews;   // -1 if unknown
+    private final int[]  usages;    // day * HOURS + hour
+
+    public PlaceSnapshot(String placeId, long timestamp, double rating, int reviews, int[][] usages) {
+        this(placeId, timestamp, rating, reviews, flatten(usages));
+    }
+
+    PlaceSnapshot(String placeId, long timestamp, double rating, int reviews, int[] usages) {
+        if(usages.length != CELLS)
+            throw new IllegalArgumentException("Expected " + CELLS + " usage values but got " + usages.length);
+        this.placeId = Objects.requireNonNull(placeId, "placeId");
+        this.timestamp = timestamp;
+        this.rating = rating;
+        this.reviews = reviews;
+        this.usages = usages;
+    }
+
+    /**
+     * @param place:     the crawled place
+     * @param timestamp: epoch millis of the crawl
+     * @return snapshot of the popular times, rating and reviews of the place, missing hours are stored as 0
+     * @throws IllegalArgumentException if the popular times of the place are pending
+     */
+    public static PlaceSnapshot of(GooglePlace place, long timestamp) {
+        if(place.isPopularTimesPending())
+            throw new IllegalArgumentException("Popular times of place " + place.getPlaceId() + " are pending.");
+        int[] usages = new int[CELLS];
+        Map<Integer, Map<Long, Double>> popularTimes = place.getPopularTimes();
+        if(popularTimes != null) {
+            for(int day = 0; day < DAYS; day++) {
+                Map<Long, Double> hours = popularTimes.get(day);
+                if(hours == null)
+                    continue;
+                for(int hour = 0; hour < HOURS; hour++) {
+                    Double usage = hours.get((long) hour);
+                    if(usage != null)
+                        usages[day * HOURS + hour] = (int) Math.round(usage);
+                }
+            }
+        }
+        return new PlaceSnapshot(place.getPlaceId(), timestamp, place.getRating(), place.getReview(), usages);
+    }
+
+    private static int[] flatten(int[][] usages) {
+        if(usages.length != DAYS)
+            throw new IllegalArgumentException("Expected " + DAYS + " days but got " + usages.length);
+        int[] flat = new int[CELLS];
+        for(int day = 0; day < DAYS; day++) {
+            if(usages[day].length != HOURS)
+                throw new IllegalArgumentException("Expected " + HOURS + " hours but got " + usages[day].length);
+            System.arraycopy(usages[day], 0, flat, day * HOURS, HOURS);
+        }
+        return flat;
+    }
+
+    public String getPlaceId() {
+        return placeId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public double getRating() {
+        return rating;
+    }
+
+    public int getReviews() {
+        return reviews;
+    }
+
+    /**
+     * @param day:  0 = sunday
+     * @param hour: 0 - 23
+     * @return usage in percent
+     */
+    public int getUsage(int day, int hour) {
+        return usages[day * HOURS + hour];
+    }
+
+    /**
+     * @return copy of the usages indexed by day (0 = sunday) and hour
+     */
+    public int[][] getUsages() {
+        int[][] res = new int[DAYS][HOURS];
+        for(int day = 0; day < DAYS; day++) {
+            System.arraycopy(usages, day * HOURS, res[day], 0, HOURS);
+        }
+        return res;
+    }
+
+    /**
+     * @return the usages in the representation of {@link GooglePlace#getPopularTimes()}
+     */
+    public Map<Integer, Map<Long, Double>> getPopularTimes() {
+        Map<Integer, Map<Long, Double>> map = new HashMap<>();
+        for(int day = 0; day < DAYS; day++) {
+            Map<Long, Double> hours = new HashMap<>();
+            for(int hour = 0; hour < HOURS; hour++) {
+                hours.put((long) hour, (double) usages[day * HOURS + hour]);
+            }
+            map.put(day, hours);
+        }
+        return map;
+    }
+
+    int[] usages() {
+        return usages;
+    }
+
+    @Override
+    public String toString() {
+        return "PlaceSnapshot{" + "placeId='" + placeId + '\'' + ", timestamp=" + timestamp + ", rating=" + rating +
+               ", reviews=" + reviews + ", usages=" + Arrays.toString(usages) + '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o)
+            return true;
+        if(o == null || getClass() != o.getClass())
+            return false;
+        PlaceSnapshot that = (PlaceSnapshot) o;
+        return timestamp == that.timestamp && Double.compare(that.rating, rating) == 0 && reviews == that.reviews &&
+               Objects.equals(placeId, that.placeId) && Arrays.equals(usages, that.usages);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(placeId, timestamp, rating, reviews);
+        result = 31 * result + Arrays.hashCode(usages);
+        return result;
+    }
+}
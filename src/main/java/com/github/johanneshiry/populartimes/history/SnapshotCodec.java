@@ -0,0 +1,199 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes.history;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary encoding of the records of a place history file. Every record is prefixed with its length and starts with a
+ * type byte:
+ * <ul>
+ * <li>keyframe: timestamp, rating, reviews and all usages</li>
+ * <li>delta: timestamp difference, rating and reviews only if changed and only the usages that changed, each as
+ * distance to the previously changed hour plus the difference to the previous value</li>
+ * </ul>
+ * Integers are written as (zigzag) varints, so unchanged weeks take only a few bytes.
+ */
+class SnapshotCodec {
+
+    static final byte[] MAGIC = {'P', 'T', 'H', '1'};
+
+    static final byte KEYFRAME = 0;
+    static final byte DELTA    = 1;
+
+    private static final int RATING_CHANGED  = 1;
+    private static final int REVIEWS_CHANGED = 2;
+
+    private SnapshotCodec() {
+    }
+
+    /**
+     * @param previous: the previous snapshot of the place or null to write a keyframe
+     * @return the length prefixed record
+     */
+    static byte[] encode(PlaceSnapshot snapshot, PlaceSnapshot previous) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(previous == null ? 200 : 16);
+
+        if(previous == null) {
+            payload.write(KEYFRAME);
+            writeVarLong(payload, zigzag(snapshot.getTimestamp()));
+            writeDouble(payload, snapshot.getRating());
+            writeVarLong(payload, zigzag(snapshot.getReviews()));
+            for(int usage : snapshot.usages()) {
+                writeVarLong(payload, zigzag(usage));
+            }
+        } else {
+            payload.write(DELTA);
+            writeVarLong(payload, snapshot.getTimestamp() - previous.getTimestamp());
+
+            boolean ratingChanged = Double.compare(snapshot.getRating(), previous.getRating()) != 0;
+            boolean reviewsChanged = snapshot.getReviews() != previous.getReviews();
+            payload.write((ratingChanged ? RATING_CHANGED : 0) | (reviewsChanged ? REVIEWS_CHANGED : 0));
+            if(ratingChanged)
+                writeDouble(payload, snapshot.getRating());
+            if(reviewsChanged)
+                writeVarLong(payload, zigzag((long) snapshot.getReviews() - previous.getReviews()));
+
+            int[] usages = snapshot.usages();
+            int[] previousUsages = previous.usages();
+            int changed = 0;
+            for(int i = 0; i < usages.length; i++) {
+                if(usages[i] != previousUsages[i])
+                    changed++;
+            }
+            writeVarLong(payload, changed);
+            int last = -1;
+            for(int i = 0; i < usages.length; i++) {
+                if(usages[i] != previousUsages[i]) {
+                    writeVarLong(payload, i - last - 1);
+                    writeVarLong(payload, zigzag((long) usages[i] - previousUsages[i]));
+                    last = i;
+                }
+            }
+        }
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream(payload.size() + 2);
+        writeVarLong(record, payload.size());
+        byte[] bytes = payload.toByteArray();
+        record.write(bytes, 0, bytes.length);
+        return record.toByteArray();
+    }
+
+    /**
+     * decodes the payload of one record
+     *
+     * @param previous: the previous snapshot of the place, required for delta records
+     * @throws IllegalStateException    if the record is corrupt
+     * @throws BufferUnderflowException if the record is shorter than its content
+     */
+    static PlaceSnapshot decode(String placeId, ByteBuffer payload, PlaceSnapshot previous) {
+        byte type = payload.get();
+        if(type == KEYFRAME) {
+            long timestamp = unzigzag(readVarLong(payload));
+            double rating = payload.getDouble();
+            int reviews = (int) unzigzag(readVarLong(payload));
+            int[] usages = new int[PlaceSnapshot.CELLS];
+            for(int i = 0; i < usages.length; i++) {
+                usages[i] = (int) unzigzag(readVarLong(payload));
+            }
+            requireConsumed(payload);
+            return new PlaceSnapshot(placeId, timestamp, rating, reviews, usages);
+        }
+
+        if(type != DELTA || previous == null)
+            throw new IllegalStateException("Unexpected record of type " + type);
+
+        long timestamp = previous.getTimestamp() + readVarLong(payload);
+        int flags = payload.get();
+        double rating = (flags & RATING_CHANGED) != 0 ? payload.getDouble() : previous.getRating();
+        int reviews = (flags & REVIEWS_CHANGED) != 0 ?
+                      (int) (previous.getReviews() + unzigzag(readVarLong(payload))) : previous.getReviews();
+
+        int[] usages = previous.usages().clone();
+        long changed = readVarLong(payload);
+        int index = -1;
+        for(long i = 0; i < changed; i++) {
+            index += (int) readVarLong(payload) + 1;
+            if(index >= usages.length)
+                throw new IllegalStateException("Usage index " + index + " out of range");
+            usages[index] += (int) unzigzag(readVarLong(payload));
+        }
+        requireConsumed(payload);
+        return new PlaceSnapshot(placeId, timestamp, rating, reviews, usages);
+    }
+
+    private static void requireConsumed(ByteBuffer payload) {
+        if(payload.hasRemaining())
+            throw new IllegalStateException(payload.remaining() + " unexpected bytes at the end of the record");
+    }
+
+    static boolean isKeyframe(ByteBuffer payload) {
+        return payload.get(payload.position()) == KEYFRAME;
+    }
+
+    static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+                return value;
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    private static void writeDouble(ByteArrayOutputStream out, double value) {
+        long bits = Double.doubleToLongBits(value);
+        for(int i = 7; i >= 0; i--) {
+            out.write((int) (bits >>> (i * 8)));
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes.transport;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.util.EntityUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking {@link Transport} based on apache httpasyncclient. Requests are multiplexed over a small number of I/O
+ * dispatcher threads, so thousands of concurrent requests do not require thousands of threads. The number of
+ * connections per endpoint host is limited, requests above this limit are queued until a connection is available.
+ * <p>
+ * The returned futures are completed on an I/O dispatcher thread. Stages depending on them must neither block nor do
+ * expensive work, otherwise they stall all other requests of the transport. Move them to another executor via the
+ * {@code *Async} methods of {@link CompletableFuture}, as the crawler does with its callback executor.
+ */
+public class ApacheAsyncHttpTransport implements Transport, Closeable {
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 8;
+    private static final int DEFAULT_TIMEOUT_MILLIS  = 30000;
+
+    private final CloseableHttpAsyncClient client;
+
+    public ApacheAsyncHttpTransport() {
+        this(DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * @param maxConnections: max number of concurrently open connections per endpoint host
+     */
+    public ApacheAsyncHttpTransport(int maxConnections) {
+        this(maxConnections, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param maxConnections: max number of concurrently open connections per endpoint host
+     * @param timeoutMillis:  max time to establish a connection and max time without data from the endpoint
+     */
+    public ApacheAsyncHttpTransport(int maxConnections, int timeoutMillis) {
+        this(HttpAsyncClients.custom().setMaxConnTotal(maxConnections * Endpoint.values().length)
+                        .setMaxConnPerRoute(maxConnections).setThreadFactory(daemonThreadFactory())
+                        .setDefaultRequestConfig(RequestConfig.custom().setConnectTimeout(timeoutMillis)
+                                        .setSocketTimeout(timeoutMillis).build()).build());
+    }
+
+    /**
+     * @param client: the client to use, it is started if not running yet
+     */
+    public ApacheAsyncHttpTransport(CloseableHttpAsyncClient client) {
+        this.client = client;
+        if(!client.isRunning())
+            client.start();
+    }
+
+    /**
+     * I/O dispatcher threads must not keep the jvm alive if the transport is never closed
+     */
+    private static ThreadFactory daemonThreadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "populartimes-io-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @Override
+    public CompletableFuture<String> fetchAsync(Endpoint endpoint, String url, Map<String, String> headers) {
+
+        //places api is queried via post, google/search via get
+        HttpRequestBase request = endpoint == Endpoint.SEARCH ? new HttpGet(url) : new HttpPost(url);
+        for(Map.Entry<String, String> header : headers.entrySet()) {
+            request.setHeader(header.getKey(), header.getValue());
+        }
+
+        CompletableFuture<String> future = new CompletableFuture<>();
+        client.execute(request, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                try {
+                    String body = response.getEntity() == null ? "" :
+                                  EntityUtils.toString(response.getEntity(), "UTF-8");
+                    int statusCode = response.getStatusLine().getStatusCode();
+                    if(statusCode < 200 || statusCode >= 300)
+                        future.completeExceptionally(new HttpStatusException(endpoint, statusCode));
+                    else
+                        future.complete(body);
+                } catch(IOException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                future.cancel(false);
+            }
+        });
+
+        return future;
+    }
+
+    @Override
+    public String fetch(Endpoint endpoint, String url, Map<String, String> headers) throws IOException {
+        try {
+            return fetchAsync(endpoint, url, headers).get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + endpoint);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+}
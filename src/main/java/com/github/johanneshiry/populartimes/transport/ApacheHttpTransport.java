@@ -0,0 +1,100 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes.transport;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Default {@link Transport} based on apache httpclient. All requests share one pooled client, so connections to the
+ * endpoints are reused instead of being opened for every single request.
+ */
+public class ApacheHttpTransport implements Transport, Closeable {
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 20;
+
+    private final CloseableHttpClient client;
+
+    public ApacheHttpTransport() {
+        this(DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * @param maxConnections: max number of concurrently open connections per endpoint host
+     */
+    public ApacheHttpTransport(int maxConnections) {
+        this(HttpClients.custom().setMaxConnTotal(maxConnections * Endpoint.values().length)
+                        .setMaxConnPerRoute(maxConnections).build());
+    }
+
+    public ApacheHttpTransport(CloseableHttpClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public String fetch(Endpoint endpoint, String url, Map<String, String> headers) throws IOException {
+
+        //places api is queried via post, google/search via get
+        HttpRequestBase request = endpoint == Endpoint.SEARCH ? new HttpGet(url) : new HttpPost(url);
+        for(Map.Entry<String, String> header : headers.entrySet()) {
+            request.setHeader(header.getKey(), header.getValue());
+        }
+
+        try(CloseableHttpResponse response = client.execute(request)) {
+            String body = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity(), "UTF-8");
+            checkStatus(endpoint, response);
+            return body;
+        }
+    }
+
+    private static void checkStatus(Endpoint endpoint, HttpResponse response) throws HttpStatusException {
+        int statusCode = response.getStatusLine().getStatusCode();
+        if(statusCode < 200 || statusCode >= 300)
+            throw new HttpStatusException(endpoint, statusCode);
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+}
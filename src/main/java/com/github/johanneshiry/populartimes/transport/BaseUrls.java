@@ -0,0 +1,102 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes.transport;
+
+import java.util.Objects;
+
+/**
+ * Base urls of the endpoints queried by the crawler. Allows to redirect the crawler e.g. to a local
+ * {@link com.github.johanneshiry.populartimes.transport.stub.StubServer}
+ */
+public class BaseUrls {
+
+    /**
+     * the default google endpoints
+     */
+    public static final BaseUrls GOOGLE = new BaseUrls("https://maps.googleapis.com/maps/api/place",
+                    "https://www.google.de/search");
+
+    private final String placesBaseUrl; // base url of the places api, e.g. https://maps.googleapis.com/maps/api/place
+    private final String searchUrl;     // url of google/search, e.g. https://www.google.de/search
+
+    public BaseUrls(String placesBaseUrl, String searchUrl) {
+        this.placesBaseUrl = stripTrailingSlash(Objects.requireNonNull(placesBaseUrl));
+        this.searchUrl = stripTrailingSlash(Objects.requireNonNull(searchUrl));
+    }
+
+    private static String stripTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    public String getPlacesBaseUrl() {
+        return placesBaseUrl;
+    }
+
+    public String getSearchUrl() {
+        return searchUrl;
+    }
+
+    /**
+     * @return url of the nearby search endpoint without any query parameters
+     */
+    public String getNearbySearchUrl() {
+        return placesBaseUrl + "/nearbysearch/json";
+    }
+
+    /**
+     * @return url of the details endpoint without any query parameters
+     */
+    public String getDetailsUrl() {
+        return placesBaseUrl + "/details/json";
+    }
+
+    @Override
+    public String toString() {
+        return "BaseUrls{" + "placesBaseUrl='" + placesBaseUrl + '\'' + ", searchUrl='" + searchUrl + '\'' + '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o)
+            return true;
+        if(o == null || getClass() != o.getClass())
+            return false;
+        BaseUrls that = (BaseUrls) o;
+        return Objects.equals(placesBaseUrl, that.placesBaseUrl) && Objects.equals(searchUrl, that.searchUrl);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(placesBaseUrl, searchUrl);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes.transport;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of concurrent asynchronous calls. Calls above the limit wait in a bounded queue and are started as
+ * soon as a running call completes, calls that do not fit into the queue are rejected. Using one bulkhead per
+ * endpoint ensures that a slow endpoint cannot occupy the capacity of the others.
+ * <p>
+ * A call that gets a free slot right away runs on the calling thread, so blocking calls of different threads run in
+ * parallel. Queued calls are started by the thread releasing a slot. Calls completing synchronously, e.g. rejected
+ * ones, release their slot to the loop already starting calls on that thread instead of starting the next call
+ * recursively, so any number of queued calls can be drained without growing the stack.
+ */
+public class Bulkhead {
+
+    private final int maxConcurrentCalls;
+    private final int maxQueuedCalls;
+
+    private final Deque<Runnable>      queue    = new ArrayDeque<>();
+    private final ThreadLocal<Boolean> draining = ThreadLocal.withInitial(() -> false);
+    // true while the current thread starts queued calls
+    private       int                  active;
+
+    /**
+     * @param maxConcurrentCalls: max number of calls running at the same time
+     * @param maxQueuedCalls:     max number of calls waiting to be started
+     */
+    public Bulkhead(int maxConcurrentCalls, int maxQueuedCalls) {
+        if(maxConcurrentCalls < 1 || maxQueuedCalls < 0)
+            throw new IllegalArgumentException("Bulkhead needs at least one concurrent call and a non negative queue.");
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.maxQueuedCalls = maxQueuedCalls;
+    }
+
+    /**
+     * Starts the call if the limit permits it, queues it otherwise
+     *
+     * @param call:      the call to execute
+     * @param rejection: creates the exception the returned future fails with if the queue is full
+     * @return future completed with the result of the call
+     */
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> call,
+                                            Supplier<? extends Throwable> rejection) {
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable task = () -> {
+            CompletableFuture<T> future;
+            try {
+                future = call.get();
+            } catch(RuntimeException e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            future.whenComplete((value, e) -> {
+                release();
+                if(e != null)
+                    result.completeExceptionally(e);
+                else
+                    result.complete(value);
+            });
+        };
+
+        synchronized(this) {
+            if(active < maxConcurrentCalls && queue.isEmpty()) {
+                active++;
+            } else if((long) active + queue.size() >= (long) maxConcurrentCalls + maxQueuedCalls) {
+                result.completeExceptionally(rejection.get());
+                return result;
+            } else {
+                queue.add(task);
+                return result;
+            }
+        }
+
+        task.run();
+        return result;
+    }
+
+    private void release() {
+        synchronized(this) {
+            active--;
+        }
+        drain();
+    }
+
+    /**
+     * starts queued calls while slots are free. If this thread is already draining further up the stack, the call
+     * returns immediately and the running loop picks up the free slot.
+     */
+    private void drain() {
+        if(draining.get())
+            return;
+
+        draining.set(true);
+        try {
+            while(true) {
+                Runnable next;
+                synchronized(this) {
+                    if(active >= maxConcurrentCalls || queue.isEmpty())
+                        return;
+                    next = queue.poll();
+                    active++;
+                }
+                next.run();
+            }
+        } finally {
+            draining.set(false);
+        }
+    }
+
+    public synchronized int getActiveCalls() {
+        return active;
+    }
+
+    public synchronized int getQueuedCalls() {
+        return queue.size();
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes.transport;
+
+/**
+ * Circuit breaker tracking the outcome of the last calls to one endpoint. If too many of them failed or were slow, the
+ * breaker opens and rejects all calls for a while. Afterwards it lets a few probe calls pass (half open) and closes
+ * again if all of them succeed in time, otherwise it opens again.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * returned by {@link #tryAcquirePermission()} if a call is not permitted
+     */
+    public static final long NOT_PERMITTED = -1;
+
+    private final int    windowSize;            // number of recent calls evaluated
+    private final int    minimumCalls;          // min number of recorded calls before the breaker may open
+    private final double failureRateThreshold;  // share of failed calls that opens the breaker
+    private final long   slowCallNanos;         // calls taking at least this long count as slow
+    private final double slowCallRateThreshold; // share of slow calls that opens the breaker
+    private final long   openNanos;             // time the breaker stays open before probing
+    private final int    probeCalls;            // number of successful probes required to close the breaker
+
+    private final boolean[] failed;
+    private final boolean[] slow;
+    private       int       next;
+    private       int       recorded;
+    private       int       failures;
+    private       int       slowCalls;
+
+    private State state = State.CLOSED;
+    private long  generation; // incremented on every state change, results of earlier generations are ignored
+    private long  openedAt;
+    private int   probesPermitted;
+    private int   probesSucceeded;
+
+    /**
+     * breaker opening if at least half of the last 20 calls failed or took 10 seconds or longer, staying open for 30
+     * seconds and closing after 3 successful probes
+     */
+    public CircuitBreaker() {
+        this(20, 10, 0.5, 10000, 0.5, 30000, 3);
+    }
+
+    /**
+     * @param windowSize:            number of recent calls evaluated
+     * @param minimumCalls:          min number of recorded calls before the breaker may open
+     * @param failureRateThreshold:  share of failed calls that opens the breaker, between 0 and 1
+     * @param slowCallMillis:        calls taking at least this long count as slow
+     * @param slowCallRateThreshold: share of slow calls that opens the breaker, between 0 and 1
+     * @param openMillis:            time the breaker stays open before probing
+     * @param probeCalls:            number of successful probes required to close the breaker
+     */
+    public CircuitBreaker(int windowSize,
+                          int minimumCalls,
+                          double failureRateThreshold,
+                          long slowCallMillis,
+                          double slowCallRateThreshold,
+                          long openMillis,
+                          int probeCalls) {
+        if(windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize || probeCalls < 1)
+            throw new IllegalArgumentException("Invalid circuit breaker window or probe settings.");
+        if(failureRateThreshold <= 0.0 || failureRateThreshold > 1.0 || slowCallRateThreshold <= 0.0 ||
+           slowCallRateThreshold > 1.0)
+            throw new IllegalArgumentException("Rate thresholds have to be greater than 0 and at most 1.");
+        this.windowSize = windowSize;
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = slowCallMillis * 1000000L;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.openNanos = openMillis * 1000000L;
+        this.probeCalls = probeCalls;
+        this.failed = new boolean[windowSize];
+        this.slow = new boolean[windowSize];
+    }
+
+    /**
+     * @return the permission to execute a call or {@link #NOT_PERMITTED}, every permitted call has to be reported with
+     * its permission via {@link #onResult(long, boolean, long)}
+     */
+    public synchronized long tryAcquirePermission() {
+        if(state == State.OPEN) {
+            if(System.nanoTime() - openedAt < openNanos)
+                return NOT_PERMITTED;
+            transitionTo(State.HALF_OPEN);
+            probesPermitted = 0;
+            probesSucceeded = 0;
+        }
+        if(state == State.HALF_OPEN) {
+            if(probesPermitted >= probeCalls)
+                return NOT_PERMITTED;
+            probesPermitted++;
+        }
+        return generation;
+    }
+
+    /**
+     * Records the result of a permitted call. Results of calls permitted before the last state change, e.g. slow calls
+     * started while closed and finishing while half open, are ignored, so they cannot count as probes.
+     *
+     * @param permission:    permission returned by {@link #tryAcquirePermission()} for the call
+     * @param failure:       true if the call failed
+     * @param durationNanos: duration of the call
+     */
+    public synchronized void onResult(long permission, boolean failure, long durationNanos) {
+        if(permission != generation)
+            return;
+
+        boolean slowCall = durationNanos >= slowCallNanos;
+
+        switch(state) {
+            case HALF_OPEN:
+                if(failure || slowCall)
+                    open();
+                else if(++probesSucceeded >= probeCalls)
+                    close();
+                break;
+            case CLOSED:
+                record(failure, slowCall);
+                if(recorded >= minimumCalls && (failures >= failureRateThreshold * recorded ||
+                                                slowCalls >= slowCallRateThreshold * recorded))
+                    open();
+                break;
+            default:
+                break; // no call is permitted while open
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void record(boolean failure, boolean slowCall) {
+        if(recorded == windowSize) {
+            //drop the oldest call
+            if(failed[next])
+                failures--;
+            if(slow[next])
+                slowCalls--;
+        } else {
+            recorded++;
+        }
+        failed[next] = failure;
+        slow[next] = slowCall;
+        if(failure)
+            failures++;
+        if(slowCall)
+            slowCalls++;
+        next = (next + 1) % windowSize;
+    }
+
+    private void transitionTo(State state) {
+        this.state = state;
+        generation++;
+    }
+
+    private void open() {
+        transitionTo(State.OPEN);
+        openedAt = System.nanoTime();
+    }
+
+    private void close() {
+        transitionTo(State.CLOSED);
+        next = 0;
+        recorded = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+}
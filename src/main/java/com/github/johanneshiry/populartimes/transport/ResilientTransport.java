@@ -0,0 +1,147 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * {@link Transport} decorator isolating the endpoints from each other. Every endpoint has its own {@link Bulkhead}
+ * limiting its concurrent requests and its own {@link CircuitBreaker} rejecting requests while the endpoint fails or
+ * responds slowly. Rejected requests fail with a {@link CallNotPermittedException} without reaching the endpoint.
+ */
+public class ResilientTransport implements Transport {
+
+    private static final int DEFAULT_MAX_CONCURRENT_CALLS = 8;
+
+    private final Transport                     delegate;
+    private final Map<Endpoint, Bulkhead>       bulkheads;
+    private final Map<Endpoint, CircuitBreaker> circuitBreakers;
+
+    /**
+     * wraps the delegate with default bulkheads (8 concurrent requests, unbounded queue) and default circuit breakers
+     * (see {@link CircuitBreaker#CircuitBreaker()}) per endpoint
+     */
+    public ResilientTransport(Transport delegate) {
+        this(delegate, defaultBulkheads(), defaultCircuitBreakers());
+    }
+
+    /**
+     * @param delegate:        the transport executing the requests
+     * @param bulkheads:       one bulkhead per endpoint
+     * @param circuitBreakers: one circuit breaker per endpoint
+     */
+    public ResilientTransport(Transport delegate,
+                              Map<Endpoint, Bulkhead> bulkheads,
+                              Map<Endpoint, CircuitBreaker> circuitBreakers) {
+        for(Endpoint endpoint : Endpoint.values()) {
+            if(!bulkheads.containsKey(endpoint) || !circuitBreakers.containsKey(endpoint))
+                throw new IllegalArgumentException("Bulkhead and circuit breaker required for " + endpoint);
+        }
+        this.delegate = delegate;
+        this.bulkheads = new EnumMap<>(bulkheads);
+        this.circuitBreakers = new EnumMap<>(circuitBreakers);
+    }
+
+    private static Map<Endpoint, Bulkhead> defaultBulkheads() {
+        Map<Endpoint, Bulkhead> bulkheads = new EnumMap<>(Endpoint.class);
+        for(Endpoint endpoint : Endpoint.values()) {
+            bulkheads.put(endpoint, new Bulkhead(DEFAULT_MAX_CONCURRENT_CALLS, Integer.MAX_VALUE));
+        }
+        return bulkheads;
+    }
+
+    private static Map<Endpoint, CircuitBreaker> defaultCircuitBreakers() {
+        Map<Endpoint, CircuitBreaker> circuitBreakers = new EnumMap<>(Endpoint.class);
+        for(Endpoint endpoint : Endpoint.values()) {
+            circuitBreakers.put(endpoint, new CircuitBreaker());
+        }
+        return circuitBreakers;
+    }
+
+    @Override
+    public CompletableFuture<String> fetchAsync(Endpoint endpoint, String url, Map<String, String> headers) {
+        CircuitBreaker circuitBreaker = circuitBreakers.get(endpoint);
+
+        return bulkheads.get(endpoint).execute(() -> {
+            //checked when the request actually starts, so queued requests fail fast once the breaker opened
+            long permission = circuitBreaker.tryAcquirePermission();
+            if(permission == CircuitBreaker.NOT_PERMITTED) {
+                CompletableFuture<String> rejected = new CompletableFuture<>();
+                rejected.completeExceptionally(new CallNotPermittedException(endpoint, "circuit breaker open"));
+                return rejected;
+            }
+
+            long start = System.nanoTime();
+            CompletableFuture<String> response;
+            try {
+                response = delegate.fetchAsync(endpoint, url, headers);
+            } catch(RuntimeException e) {
+                circuitBreaker.onResult(permission, true, System.nanoTime() - start);
+                throw e;
+            }
+            return response.whenComplete(
+                    (body, e) -> circuitBreaker.onResult(permission, e != null, System.nanoTime() - start));
+        }, () -> new CallNotPermittedException(endpoint, "bulkhead full"));
+    }
+
+    @Override
+    public String fetch(Endpoint endpoint, String url, Map<String, String> headers) throws IOException {
+        try {
+            return fetchAsync(endpoint, url, headers).get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + endpoint);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    public Bulkhead getBulkhead(Endpoint endpoint) {
+        return bulkheads.get(endpoint);
+    }
+
+    public CircuitBreaker getCircuitBreaker(Endpoint endpoint) {
+        return circuitBreakers.get(endpoint);
+    }
+
+    public Transport getDelegate() {
+        return delegate;
+    }
+}
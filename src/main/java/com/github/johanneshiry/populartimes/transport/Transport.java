@@ -0,0 +1,81 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes.transport;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Transport used by the crawler to reach its upstream endpoints. Implementations have to be thread safe, as one
+ * transport may be shared by several crawlers.
+ */
+public interface Transport {
+
+    /**
+     * Executes a request against the provided endpoint and returns the response body
+     *
+     * @param endpoint: the endpoint the url belongs to
+     * @param url:      the fully qualified request url
+     * @param headers:  additional request headers, e.g. the user agent
+     * @return the response body as string
+     * @throws HttpStatusException if the endpoint answered with a non 2xx status code
+     * @throws IOException         if the request could not be executed
+     */
+    String fetch(Endpoint endpoint, String url, Map<String, String> headers) throws IOException;
+
+    /**
+     * Executes a request against the provided endpoint without blocking the calling thread. The returned future is
+     * completed with the response body or exceptionally with the exceptions described in
+     * {@link #fetch(Endpoint, String, Map)}.
+     * <p>
+     * The default implementation executes the blocking {@link #fetch(Endpoint, String, Map)} on the calling thread,
+     * non-blocking transports override it.
+     * Non-blocking transports may complete the future on their own I/O threads, so dependent stages should be executed
+     * on a different executor.
+     *
+     * @param endpoint: the endpoint the url belongs to
+     * @param url:      the fully qualified request url
+     * @param headers:  additional request headers, e.g. the user agent
+     * @return future completed with the response body
+     */
+    default CompletableFuture<String> fetchAsync(Endpoint endpoint, String url, Map<String, String> headers) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        try {
+            future.complete(fetch(endpoint, url, headers));
+        } catch(IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes.transport.stub;
+
+/**
+ * Describes how the {@link StubServer} answers the requests of one endpoint: with which latency, how many requests
+ * fail and from which request rate on requests are throttled.
+ */
+public class StubProfile {
+
+    /**
+     * answers immediately, never fails and never throttles
+     */
+    public static final StubProfile IDEAL = new StubProfile(0, 0, 0.0, 0);
+
+    private final long   latencyMillis;        // base latency of every response
+    private final long   jitterMillis;         // max additional random latency
+    private final double errorRate;            // share of requests answered with status 500, between 0 and 1
+    private final int    maxRequestsPerSecond; // requests above this rate are answered with 429, 0 = unlimited
+
+    public StubProfile(long latencyMillis, long jitterMillis, double errorRate, int maxRequestsPerSecond) {
+        if(latencyMillis < 0 || jitterMillis < 0)
+            throw new IllegalArgumentException("Latency and jitter must not be negative.");
+        if(errorRate < 0.0 || errorRate > 1.0)
+            throw new IllegalArgumentException("Error rate has to be between 0 and 1.");
+        if(maxRequestsPerSecond < 0)
+            throw new IllegalArgumentException("Max requests per second must not be negative.");
+
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.errorRate = errorRate;
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+    }
+
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    public long getJitterMillis() {
+        return jitterMillis;
+    }
+
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    public int getMaxRequestsPerSecond() {
+        return maxRequestsPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return "StubProfile{" + "latencyMillis=" + latencyMillis + ", jitterMillis=" + jitterMillis + ", errorRate=" +
+               errorRate + ", maxRequestsPerSecond=" + maxRequestsPerSecond + '}';
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes.transport.stub;
+
+import com.github.johanneshiry.populartimes.transport.Endpoint;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Recorded endpoint responses replayed by the {@link StubServer}. Responses are stored per {@link Endpoint} and keyed
+ * by the request parameter that identifies a request to this endpoint:
+ * <ul>
+ * <li>{@link Endpoint#NEARBY_SEARCH}: the location parameter, e.g. "51.25,7.15"</li>
+ * <li>{@link Endpoint#DETAILS}: the place id</li>
+ * <li>{@link Endpoint#SEARCH}: the search query</li>
+ * </ul>
+ * If no response has been recorded for a key, the default response of the endpoint is replayed (if available).
+ */
+public class StubRecordings {
+
+    public static final String DEFAULT_KEY = "default";
+
+    private final Map<Endpoint, Map<String, String>> responses = new EnumMap<>(Endpoint.class);
+
+    public StubRecordings() {
+        for(Endpoint endpoint : Endpoint.values()) {
+            responses.put(endpoint, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Loads recorded responses from a directory. The directory is expected to contain one sub directory per endpoint
+     * named by {@link Endpoint#getKey()} (nearbysearch, details, search). Each file inside these directories is one
+     * response. The file name without extension is the url encoded key of the response, "default" marks the default
+     * response of the endpoint, e.g. details/ChIJ2SnYKt4wuUcRKc9HuFzQqSs.json or search/default.txt
+     *
+     * @param directory: root directory of the recordings
+     * @return the loaded recordings
+     * @throws IOException if the recordings could not be read
+     */
+    public static StubRecordings fromDirectory(Path directory) throws IOException {
+        StubRecordings recordings = new StubRecordings();
+
+        for(Endpoint endpoint : Endpoint.values()) {
+            Path endpointDir = directory.resolve(endpoint.getKey());
+            if(!Files.isDirectory(endpointDir))
+                continue;
+
+            try(DirectoryStream<Path> files = Files.newDirectoryStream(endpointDir)) {
+                for(Path file : files) {
+                    if(!Files.isRegularFile(file))
+                        continue;
+                    String fileName = file.getFileName().toString();
+                    int extension = fileName.lastIndexOf('.');
+                    String key = URLDecoder.decode(extension > 0 ? fileName.substring(0, extension) : fileName,
+                                    "UTF-8");
+                    recordings.put(endpoint, key, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        return recordings;
+    }
+
+    /**
+     * Records a response for the provided endpoint and key
+     *
+     * @param endpoint: the endpoint
+     * @param key:      location, place id or search query depending on the endpoint
+     * @param response: the response body
+     * @return this recordings instance
+     */
+    public StubRecordings put(Endpoint endpoint, String key, String response) {
+        responses.get(endpoint).put(key, response);
+        return this;
+    }
+
+    /**
+     * Records the response that is replayed if no response has been recorded for the requested key
+     *
+     * @param endpoint: the endpoint
+     * @param response: the response body
+     * @return this recordings instance
+     */
+    public StubRecordings putDefault(Endpoint endpoint, String response) {
+        return put(endpoint, DEFAULT_KEY, response);
+    }
+
+    /**
+     * @return the recorded response for the provided key, the default response of the endpoint or null if neither
+     * has been recorded
+     */
+    public String get(Endpoint endpoint, String key) {
+        Map<String, String> endpointResponses = responses.get(endpoint);
+        String response = key == null ? null : endpointResponses.get(key);
+        return response != null ? response : endpointResponses.get(DEFAULT_KEY);
+    }
+
+    /**
+     * @return the name of the request parameter the responses of the provided endpoint are keyed by
+     */
+    static String keyParameter(Endpoint endpoint) {
+        switch(endpoint) {
+            case NEARBY_SEARCH:
+                return "location";
+            case DETAILS:
+                return "placeid";
+            case SEARCH:
+                return "q";
+            default:
+                throw new IllegalArgumentException("Unknown endpoint " + endpoint);
+        }
+    }
+
+    static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch(UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes.transport.stub;
+
+import com.github.johanneshiry.populartimes.transport.BaseUrls;
+import com.github.johanneshiry.populartimes.transport.Endpoint;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedded local http server that replays {@link StubRecordings} instead of querying google. Point a crawler to
+ * {@link #getBaseUrls()} to load test it or to measure its throughput offline. Latency, errors and throttling can be
+ * configured per endpoint via {@link StubProfile}s.
+ * <p>
+ * Delayed responses are written by a scheduler and do not block the threads accepting requests, so the stub itself
+ * does not limit the number of concurrent requests.
+ */
+public class StubServer implements Closeable {
+
+    private static final String PLACES_PATH = "/maps/api/place";
+    private static final String SEARCH_PATH = "/search";
+
+    private static final int DEFAULT_THREADS = 8;
+
+    private final StubRecordings           recordings;
+    private final HttpServer               server;
+    private final ExecutorService          workers;
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<Endpoint, StubProfile> profiles  = new ConcurrentHashMap<>();
+    private final Map<Endpoint, RateWindow>  windows   = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, AtomicLong>  requests  = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, AtomicLong>  errors    = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, AtomicLong>  throttled = new EnumMap<>(Endpoint.class);
+
+    /**
+     * Creates a stub server listening on a random free local port
+     *
+     * @param recordings: the responses to replay
+     */
+    public StubServer(StubRecordings recordings) throws IOException {
+        this(recordings, 0, DEFAULT_THREADS);
+    }
+
+    /**
+     * @param recordings: the responses to replay
+     * @param port:       local port to listen on, 0 picks a random free port
+     * @param threads:    number of threads accepting requests and writing responses
+     */
+    public StubServer(StubRecordings recordings, int port, int threads) throws IOException {
+        this.recordings = recordings;
+
+        for(Endpoint endpoint : Endpoint.values()) {
+            profiles.put(endpoint, StubProfile.IDEAL);
+            windows.put(endpoint, new RateWindow());
+            requests.put(endpoint, new AtomicLong());
+            errors.put(endpoint, new AtomicLong());
+            throttled.put(endpoint, new AtomicLong());
+        }
+
+        this.workers = Executors.newFixedThreadPool(threads);
+        this.scheduler = Executors.newScheduledThreadPool(threads);
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(PLACES_PATH + "/nearbysearch/json", exchange -> handle(Endpoint.NEARBY_SEARCH, exchange));
+        server.createContext(PLACES_PATH + "/details/json", exchange -> handle(Endpoint.DETAILS, exchange));
+        server.createContext(SEARCH_PATH, exchange -> handle(Endpoint.SEARCH, exchange));
+        server.setExecutor(workers);
+    }
+
+    public StubServer start() {
+        server.start();
+        return this;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return base urls pointing to this stub server
+     */
+    public BaseUrls getBaseUrls() {
+        String root = "http://" + server.getAddress().getHostString() + ":" + getPort();
+        return new BaseUrls(root + PLACES_PATH, root + SEARCH_PATH);
+    }
+
+    /**
+     * Sets the profile of all endpoints
+     */
+    public void setProfile(StubProfile profile) {
+        for(Endpoint endpoint : Endpoint.values()) {
+            setProfile(endpoint, profile);
+        }
+    }
+
+    /**
+     * Sets the profile of the provided endpoint, takes effect for all requests received afterwards
+     */
+    public void setProfile(Endpoint endpoint, StubProfile profile) {
+        profiles.put(endpoint, profile);
+    }
+
+    /**
+     * @return number of requests received by the provided endpoint including failed and throttled ones
+     */
+    public long getRequestCount(Endpoint endpoint) {
+        return requests.get(endpoint).get();
+    }
+
+    /**
+     * @return number of requests of the provided endpoint answered with an error (500) or without recording (404)
+     */
+    public long getErrorCount(Endpoint endpoint) {
+        return errors.get(endpoint).get();
+    }
+
+    /**
+     * @return number of requests of the provided endpoint answered with 429
+     */
+    public long getThrottledCount(Endpoint endpoint) {
+        return throttled.get(endpoint).get();
+    }
+
+    public void resetCounters() {
+        for(Endpoint endpoint : Endpoint.values()) {
+            requests.get(endpoint).set(0);
+            errors.get(endpoint).set(0);
+            throttled.get(endpoint).set(0);
+        }
+    }
+
+    private void handle(Endpoint endpoint, HttpExchange exchange) {
+        requests.get(endpoint).incrementAndGet();
+        StubProfile profile = profiles.get(endpoint);
+
+        int status;
+        String body;
+        if(windows.get(endpoint).exceeds(profile.getMaxRequestsPerSecond())) {
+            throttled.get(endpoint).incrementAndGet();
+            status = 429;
+            body = errorBody(status);
+        } else if(profile.getErrorRate() > 0.0 && ThreadLocalRandom.current().nextDouble() < profile.getErrorRate()) {
+            errors.get(endpoint).incrementAndGet();
+            status = 500;
+            body = errorBody(status);
+        } else {
+            body = recordings.get(endpoint, queryParameter(exchange, StubRecordings.keyParameter(endpoint)));
+            if(body == null) {
+                errors.get(endpoint).incrementAndGet();
+                status = 404;
+                body = errorBody(status);
+            } else {
+                status = 200;
+            }
+        }
+
+        long jitter = profile.getJitterMillis() > 0 ?
+                      ThreadLocalRandom.current().nextLong(profile.getJitterMillis() + 1) : 0;
+        long delay = profile.getLatencyMillis() + jitter;
+
+        if(delay > 0) {
+            final int delayedStatus = status;
+            final String delayedBody = body;
+            scheduler.schedule(() -> respond(exchange, delayedStatus, delayedBody), delay, TimeUnit.MILLISECONDS);
+        } else {
+            respond(exchange, status, body);
+        }
+    }
+
+    /**
+     * Error responses carry a small body as well. A response without body is sent as "Content-length: 0" by the jdk
+     * http server, which then resets the kept-alive connection and pooled clients fail with a connection error
+     * instead of the status code.
+     */
+    private static String errorBody(int status) {
+        return "{\"status\":" + status + "}";
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) {
+        try {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try(OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } catch(IOException e) {
+            // client went away, nothing left to answer
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if(query == null)
+            return null;
+
+        for(String pair : query.split("&")) {
+            int split = pair.indexOf('=');
+            if(split > 0 && pair.substring(0, split).equals(name))
+                return StubRecordings.decode(pair.substring(split + 1));
+        }
+        return null;
+    }
+
+    /**
+     * Counts the requests of the current second to throttle requests above a configured rate
+     */
+    private static class RateWindow {
+
+        private long second = -1;
+        private int  count;
+
+        synchronized boolean exceeds(int maxRequestsPerSecond) {
+            if(maxRequestsPerSecond <= 0)
+                return false;
+
+            long now = System.currentTimeMillis() / 1000;
+            if(now != second) {
+                second = now;
+                count = 0;
+            }
+            return ++count > maxRequestsPerSecond;
+        }
+    }
+}
@@ -35,10 +35,15 @@ package com.github.johanneshiry.populartimes.utils;
 import com.google.gson.Gson;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 
-
+/**
+ * Place information and popular times of one place. Places are immutable, as one place may be returned to several
+ * callers of the crawler at the same time.
+ */
 public class GooglePlace {
 
     private final String                          name;
@@ -49,6 +54,8 @@ public class GooglePlace {
     private final LatLong                         geoCoord;
     private final String[]                        types;
     private final int                             review;
+    private final boolean                         popularTimesPending;
+    //true if popular times could not be requested yet and have to be backfilled later
 
     public GooglePlace(String name,
                        String formattedAddress,
@@ -58,14 +65,27 @@ public class GooglePlace {
                        LatLong geoCoord,
                        String[] types,
                        int review) {
+        this(name, formattedAddress, placeId, popularTimes, rating, geoCoord, types, review, false);
+    }
+
+    public GooglePlace(String name,
+                       String formattedAddress,
+                       String placeId,
+                       Map<Integer, Map<Long, Double>> popularTimes,
+                       double rating,
+                       LatLong geoCoord,
+                       String[] types,
+                       int review,
+                       boolean popularTimesPending) {
         this.name = name;
         this.formattedAddress = formattedAddress;
         this.placeId = placeId;
-        this.popularTimes = popularTimes;
+        this.popularTimes = unmodifiableCopy(popularTimes);
         this.rating = rating;
         this.geoCoord = geoCoord;
-        this.types = types;
+        this.types = types == null ? null : types.clone();
         this.review = review;
+        this.popularTimesPending = popularTimesPending;
     }
 
     public String getPlaceId() {
@@ -84,10 +104,16 @@ public class GooglePlace {
         return formattedAddress;
     }
 
+    /**
+     * @return a copy of the types of the place
+     */
     public String[] getTypes() {
-        return types;
+        return types == null ? null : types.clone();
     }
 
+    /**
+     * @return unmodifiable popular times, the usage per hour of every day starting with 0 for sunday
+     */
     public Map<Integer, Map<Long, Double>> getPopularTimes() {
         return popularTimes;
     }
@@ -107,11 +133,35 @@ public class GooglePlace {
         return rating;
     }
 
+    /**
+     * @return true if popular times could not be requested yet, e.g. because google/search was unavailable, and have
+     * to be backfilled later. Popular times are empty in this case.
+     */
+    public boolean isPopularTimesPending() {
+        return popularTimesPending;
+    }
+
+    /**
+     * places are shared by coalesced lookups of the crawler, so their popular times must not be modifiable
+     */
+    private static Map<Integer, Map<Long, Double>> unmodifiableCopy(Map<Integer, Map<Long, Double>> popularTimes) {
+        if(popularTimes == null)
+            return null;
+
+        Map<Integer, Map<Long, Double>> copy = new HashMap<>();
+        for(Map.Entry<Integer, Map<Long, Double>> day : popularTimes.entrySet()) {
+            copy.put(day.getKey(), day.getValue() == null ? null :
+                                   Collections.unmodifiableMap(new HashMap<>(day.getValue())));
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
     @Override
     public String toString() {
         return "GooglePlace{" + "name='" + name + '\'' + ", formattedAddress='" + formattedAddress + '\'' +
                ", placeId='" + placeId + '\'' + ", popularTimes=" + popularTimes + ", rating=" + rating +
-               ", geoCoord=" + geoCoord + ", types=" + Arrays.toString(types) + ", review=" + review + '}';
+               ", geoCoord=" + geoCoord + ", types=" + Arrays.toString(types) + ", review=" + review +
+               ", popularTimesPending=" + popularTimesPending + '}';
     }
 
     @Override
@@ -121,7 +171,8 @@ public class GooglePlace {
         if(o == null || getClass() != o.getClass())
             return false;
         GooglePlace that = (GooglePlace) o;
-        return Double.compare(that.rating, rating) == 0 && review == that.review && Objects.equals(name, that.name) &&
+        return Double.compare(that.rating, rating) == 0 && review == that.review &&
+               popularTimesPending == that.popularTimesPending && Objects.equals(name, that.name) &&
                Objects.equals(formattedAddress, that.formattedAddress) && Objects.equals(placeId, that.placeId) &&
                Objects.equals(popularTimes, that.popularTimes) && Objects.equals(geoCoord, that.geoCoord) &&
                Arrays.equals(types, that.types);
@@ -129,7 +180,8 @@ public class GooglePlace {
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(name, formattedAddress, placeId, popularTimes, rating, geoCoord, review);
+        int result = Objects.hash(name, formattedAddress, placeId, popularTimes, rating, geoCoord, review,
+                        popularTimesPending);
         result = 31 * result + Arrays.hashCode(types);
         return result;
     }
@@ -0,0 +1,127 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes
+
+import com.github.johanneshiry.populartimes.transport.ApacheAsyncHttpTransport
+import com.github.johanneshiry.populartimes.transport.Endpoint
+import com.github.johanneshiry.populartimes.transport.stub.StubProfile
+import com.github.johanneshiry.populartimes.transport.stub.StubRecordings
+import com.github.johanneshiry.populartimes.transport.stub.StubServer
+import com.github.johanneshiry.populartimes.utils.GooglePlace
+import com.github.johanneshiry.populartimes.utils.LatLong
+import com.google.gson.Gson
+import com.google.gson.GsonBuilder
+import spock.lang.Shared
+import spock.lang.Specification
+
+class PopularTimesCrawlerTest extends Specification {
+
+    private static final int  PLACES = 10
+    private static final Gson GSON   = new GsonBuilder().serializeNulls().create()
+
+    @Shared
+    StubServer server
+
+    @Shared
+    ApacheAsyncHttpTransport transport = new ApacheAsyncHttpTransport()
+
+    /**
+     * google/search response of a place, only the fields read by the crawler are filled
+     */
+    private static String searchResponse(boolean popularTimes) {
+        List<Object> info = [null] * 85
+        info[4] = [null, null, null, null, null, null, null, 4.5, 123]
+        if(popularTimes)
+            info[84] = [[[1, [[8, 10], [9, 20]]], [2, null], [3, [[12, 50]]], [4, null], [5, null], [6, null],
+                         [7, null]]]
+        List<Object> row = [null] * 15
+        row[14] = info
+        String data = ")]}'" + GSON.toJson([[null, [row]]])
+        return GSON.toJson([d: data]) + '/*""*/'
+    }
+
+    def setupSpec() {
+        StubRecordings recordings = new StubRecordings()
+        List<Map> nearbyResults = (0..<PLACES).collect { int i ->
+            recordings.put(Endpoint.SEARCH, "Pizza " + i + " Street " + i + ", Town", searchResponse(i % 2 == 0))
+            [place_id: "p" + i, name: "Pizza " + i, vicinity: "Street " + i + ", Town", types: ["restaurant"],
+             geometry: [location: [lat: 51.2, lng: 7.1]], rating: 4.1, user_ratings_total: 7]
+        }
+        recordings.putDefault(Endpoint.NEARBY_SEARCH, GSON.toJson([results: nearbyResults]))
+        recordings.putDefault(Endpoint.DETAILS, '{"result":{"formatted_address":"Street 1, 42103 Town, Germany"}}')
+        server = new StubServer(recordings).start()
+    }
+
+    def cleanupSpec() {
+        server.close()
+        transport.close()
+    }
+
+    def setup() {
+        server.setProfile(StubProfile.IDEAL)
+        server.resetCounters()
+    }
+
+    private PopularTimesCrawler crawler() {
+        return new PopularTimesCrawler(CrawlerConfig.builder("key", "restaurant").transport(transport)
+                .baseUrls(server.baseUrls).reuseNearbyFields(true).build())
+    }
+
+    private List<GooglePlace> crawlFrame() {
+        return crawler().getDataOfFrame(new LatLong(51.2, 7.1), new LatLong(51.2001, 7.1001), 500)
+    }
+
+    def "A crawler reusing nearby fields only requests the address of places with popular times"() {
+        when:
+        List<GooglePlace> places = crawlFrame()
+
+        then:
+        places.size() == PLACES / 2
+        places.every { it.formattedAddress == "Street 1, 42103 Town, Germany" && !it.popularTimes.isEmpty() }
+        server.getRequestCount(Endpoint.SEARCH) == PLACES
+        server.getRequestCount(Endpoint.DETAILS) == PLACES / 2
+    }
+
+    def "A crawler reusing nearby fields keeps places with popular times if their address cannot be requested"() {
+        given:
+        server.setProfile(Endpoint.DETAILS, new StubProfile(0, 0, 1.0, 0))
+
+        when:
+        List<GooglePlace> places = crawlFrame()
+
+        then:
+        places.size() == PLACES / 2
+        places.every { it.formattedAddress == it.name.replace("Pizza", "Street") + ", Town" }
+        places.every { !it.popularTimes.isEmpty() }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes.history
+
+import com.github.johanneshiry.populartimes.utils.GooglePlace
+import com.github.johanneshiry.populartimes.utils.LatLong
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+class PlaceHistoryStoreTest extends Specification {
+
+    @TempDir
+    Path directory
+
+    private static final String PLACE_ID = "ChIJ/x+y"
+
+    /**
+     * @return snapshot whose usages, rating and reviews depend on the provided week
+     */
+    private static PlaceSnapshot snapshot(long timestamp, int week) {
+        int[][] usages = (0..<PlaceSnapshot.DAYS).collect { int day ->
+            (0..<PlaceSnapshot.HOURS).collect { int hour -> (day * 7 + hour * 3 + week * 5) % 101 } as int[]
+        } as int[][]
+        return new PlaceSnapshot(PLACE_ID, timestamp, 4.0 + (week % 10) / 10, 100 + week, usages)
+    }
+
+    private Path historyFile() {
+        return directory.resolve(URLEncoder.encode(PLACE_ID, "UTF-8") + ".hist")
+    }
+
+    private static GooglePlace place(boolean popularTimesPending) {
+        Map<Integer, Map<Long, Double>> popularTimes = popularTimesPending ? [:] : [1: [8L: 10.0d, 9L: 20.0d]]
+        return new GooglePlace("Pizza", "Street 1", "ChIJ/x+y", popularTimes, 4.5, new LatLong(51.2, 7.1),
+                ["restaurant"] as String[], 123, popularTimesPending)
+    }
+
+    def "A history store appends snapshots of places with popular times"() {
+        given:
+        PlaceHistoryStore store = new PlaceHistoryStore(directory)
+
+        when:
+        boolean appended = store.append(place(false), 1000L)
+
+        then:
+        appended
+        store.read("ChIJ/x+y").size() == 1
+        store.latest("ChIJ/x+y").getUsage(1, 9) == 20
+    }
+
+    def "A history store skips places with pending popular times"() {
+        given:
+        PlaceHistoryStore store = new PlaceHistoryStore(directory)
+        store.append(place(false), 1000L)
+
+        when:
+        boolean appended = store.append(place(true), 2000L)
+
+        then:
+        !appended
+        store.read("ChIJ/x+y")*.timestamp == [1000L]
+    }
+
+    def "A snapshot cannot be created from a place with pending popular times"() {
+        when:
+        PlaceSnapshot.of(place(true), 1000L)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def "A history store truncates a last record that has been cut off while appending it"() {
+        given:
+        PlaceHistoryStore store = new PlaceHistoryStore(directory, 4)
+        List<PlaceSnapshot> snapshots = (0..<6).collect { snapshot(it * 1000L, it) }
+        snapshots.take(5).each { store.append(it) }
+        long intactSize = Files.size(historyFile())
+        store.append(snapshots[5])
+        byte[] bytes = Files.readAllBytes(historyFile())
+        Files.write(historyFile(), Arrays.copyOf(bytes, bytes.length - cutOff))
+
+        when:
+        PlaceHistoryStore reopened = new PlaceHistoryStore(directory, 4)
+
+        then:
+        reopened.read(PLACE_ID) == snapshots.take(5)
+        Files.size(historyFile()) == intactSize
+
+        when: "the history can be continued after the truncated record"
+        reopened.append(snapshots[5])
+
+        then:
+        new PlaceHistoryStore(directory, 4).read(PLACE_ID) == snapshots
+
+        where:
+        cutOff << [1, 3]
+    }
+
+    def "A history store refuses to load a corrupt record and does not modify the file"() {
+        given:
+        PlaceHistoryStore store = new PlaceHistoryStore(directory, 4)
+        (0..<12).each { store.append(snapshot(it * 1000L, it)) }
+        byte[] bytes = Files.readAllBytes(historyFile())
+
+        and: "the type of the first record is changed from keyframe to delta"
+        int typeOffset = 4
+        while((bytes[typeOffset] & 0x80) != 0) {
+            typeOffset++
+        }
+        typeOffset++
+        bytes[typeOffset] = 1
+        Files.write(historyFile(), bytes)
+
+        when:
+        new PlaceHistoryStore(directory, 4).read(PLACE_ID)
+
+        then:
+        thrown(IOException)
+        Files.readAllBytes(historyFile()) == bytes
+
+        when:
+        new PlaceHistoryStore(directory, 4).append(snapshot(20000L, 20))
+
+        then:
+        thrown(IOException)
+        Files.readAllBytes(historyFile()) == bytes
+    }
+
+    def "A history store reads all appended snapshots across keyframes and after reopening"() {
+        given:
+        PlaceHistoryStore store = new PlaceHistoryStore(directory, 4)
+        List<PlaceSnapshot> snapshots = (0..<12).collect { snapshot(it * 1000L, it) }
+
+        when:
+        snapshots.each { store.append(it) }
+
+        then:
+        store.read(PLACE_ID) == snapshots
+        store.latest(PLACE_ID) == snapshots.last()
+        new PlaceHistoryStore(directory, 4).read(PLACE_ID) == snapshots
+        new PlaceHistoryStore(directory, 4).latest(PLACE_ID) == snapshots.last()
+        store.placeIds == [PLACE_ID] as Set
+    }
+
+    def "A history store reads the snapshots of a range including its boundaries"() {
+        given: "keyframes at 0, 4000 and 8000"
+        PlaceHistoryStore store = new PlaceHistoryStore(directory, 4)
+        List<PlaceSnapshot> snapshots = (0..<12).collect { snapshot(it * 1000L, it) }
+        snapshots.each { store.append(it) }
+
+        expect:
+        store.read(PLACE_ID, from, to)*.timestamp == expected
+
+        where:
+        from           | to             || expected
+        4000L          | 4000L          || [4000L]
+        3000L          | 5000L          || [3000L, 4000L, 5000L]
+        3999L          | 8001L          || [4000L, 5000L, 6000L, 7000L, 8000L]
+        4001L          | 7999L          || [5000L, 6000L, 7000L]
+        -5000L         | 1000L          || [0L, 1000L]
+        10500L         | 20000L         || [11000L]
+        Long.MIN_VALUE | Long.MAX_VALUE || (0..<12).collect { it * 1000L }
+        12000L         | 20000L         || []
+        -5000L         | -1L            || []
+        5000L          | 4000L          || []
+    }
+
+    def "A history store reads snapshots with equal timestamps spanning a keyframe"() {
+        given: "the snapshots at indices 3, 4 and 5 share one timestamp, index 4 is a keyframe"
+        PlaceHistoryStore store = new PlaceHistoryStore(directory, 4)
+        List<Long> timestamps = [0L, 1000L, 2000L, 3000L, 3000L, 3000L, 4000L]
+        List<PlaceSnapshot> snapshots = timestamps.withIndex().collect { long timestamp, int i ->
+            snapshot(timestamp, i)
+        }
+        snapshots.each { store.append(it) }
+
+        expect:
+        store.read(PLACE_ID, 3000L, 3000L) == snapshots[3..5]
+        store.read(PLACE_ID, 3000L, 4000L) == snapshots[3..6]
+        store.read(PLACE_ID, 0L, 2999L) == snapshots[0..2]
+    }
+
+    def "A history store rejects snapshots older than the latest one"() {
+        given:
+        PlaceHistoryStore store = new PlaceHistoryStore(directory)
+        store.append(snapshot(2000L, 1))
+
+        when:
+        store.append(snapshot(1000L, 2))
+
+        then:
+        thrown(IllegalArgumentException)
+        store.read(PLACE_ID)*.timestamp == [2000L]
+    }
+
+    def "A history store compaction drops expired snapshots and snapshots equal to their predecessor"() {
+        given:
+        PlaceHistoryStore store = new PlaceHistoryStore(directory, 4)
+        List<PlaceSnapshot> snapshots = [snapshot(0L, 0), snapshot(1000L, 1), snapshot(2000L, 2),
+                                         snapshot(3000L, 2), snapshot(4000L, 2), snapshot(5000L, 3),
+                                         snapshot(6000L, 3), snapshot(7000L, 4)]
+        snapshots.each { store.append(it) }
+
+        when:
+        store.compact(PLACE_ID, 1000L)
+
+        then:
+        store.read(PLACE_ID)*.timestamp == [1000L, 2000L, 5000L, 7000L]
+        new PlaceHistoryStore(directory, 4).read(PLACE_ID) == [snapshots[1], snapshots[2], snapshots[5], snapshots[7]]
+
+        when: "the compacted history is continued"
+        store.append(snapshot(8000L, 5))
+
+        then:
+        new PlaceHistoryStore(directory, 4).read(PLACE_ID)*.timestamp == [1000L, 2000L, 5000L, 7000L, 8000L]
+    }
+
+    def "A history store compaction deletes histories without remaining snapshots"() {
+        given:
+        PlaceHistoryStore store = new PlaceHistoryStore(directory)
+        store.append(snapshot(1000L, 1))
+        store.append(snapshot(2000L, 2))
+
+        when:
+        store.compactAll(5000L)
+
+        then:
+        !Files.exists(historyFile())
+        store.placeIds.isEmpty()
+        store.read(PLACE_ID).isEmpty()
+        store.latest(PLACE_ID) == null
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes.history
+
+import spock.lang.Specification
+
+import java.nio.Buffer
+import java.nio.ByteBuffer
+
+class SnapshotCodecTest extends Specification {
+
+    private static PlaceSnapshot snapshot(long timestamp, double rating, int reviews, Closure<Integer> usage) {
+        int[][] usages = (0..<PlaceSnapshot.DAYS).collect { int day ->
+            (0..<PlaceSnapshot.HOURS).collect { int hour -> usage(day, hour) } as int[]
+        } as int[][]
+        return new PlaceSnapshot("ChIJ/x+y", timestamp, rating, reviews, usages)
+    }
+
+    /**
+     * strips the length prefix of the record and checks that it matches the payload
+     */
+    private static ByteBuffer payloadOf(byte[] record) {
+        ByteBuffer buffer = ByteBuffer.wrap(record)
+        long length = SnapshotCodec.readVarLong(buffer)
+        assert length == buffer.remaining()
+        return buffer
+    }
+
+    def "A keyframe contains the whole snapshot"() {
+        given:
+        PlaceSnapshot snapshot = snapshot(1571472000000L, 4.5, 123, { int day, int hour -> day * 10 + hour })
+
+        when:
+        PlaceSnapshot decoded = SnapshotCodec.decode("ChIJ/x+y", payloadOf(SnapshotCodec.encode(snapshot, null)), null)
+
+        then:
+        decoded == snapshot
+    }
+
+    def "A keyframe supports negative timestamps, reviews and usages"() {
+        given:
+        PlaceSnapshot snapshot = snapshot(-1000L, -1.0, -1, { int day, int hour -> hour % 2 == 0 ? -hour : hour })
+
+        expect:
+        SnapshotCodec.decode("ChIJ/x+y", payloadOf(SnapshotCodec.encode(snapshot, null)), null) == snapshot
+    }
+
+    def "A delta restores the snapshot from its predecessor"() {
+        given:
+        PlaceSnapshot previous = snapshot(1000L, 4.5, 123, { int day, int hour -> 50 })
+        PlaceSnapshot snapshot = snapshot(605801000L, rating, reviews, usage)
+
+        when:
+        byte[] record = SnapshotCodec.encode(snapshot, previous)
+        PlaceSnapshot decoded = SnapshotCodec.decode("ChIJ/x+y", payloadOf(record), previous)
+
+        then:
+        decoded == snapshot
+
+        where:
+        rating | reviews | usage
+        4.5    | 123     | { int day, int hour -> 50 }
+        4.6    | 123     | { int day, int hour -> 50 }
+        4.5    | 130     | { int day, int hour -> 50 }
+        4.4    | 100     | { int day, int hour -> 50 }
+        4.5    | 123     | { int day, int hour -> day == 3 && hour == 12 ? 80 : 50 }
+        4.5    | 123     | { int day, int hour -> 50 - day * 7 - hour }
+        3.9    | 0       | { int day, int hour -> hour == 0 || hour == 23 ? 0 : 100 }
+    }
+
+    def "A delta of an unchanged snapshot takes only a few bytes"() {
+        given:
+        PlaceSnapshot previous = snapshot(1000L, 4.5, 123, { int day, int hour -> day + hour })
+        PlaceSnapshot unchanged = snapshot(605801000L, 4.5, 123, { int day, int hour -> day + hour })
+
+        expect:
+        SnapshotCodec.encode(unchanged, previous).length <= 16
+        SnapshotCodec.encode(unchanged, null).length > PlaceSnapshot.DAYS * PlaceSnapshot.HOURS
+    }
+
+    def "A delta cannot be decoded without its predecessor"() {
+        given:
+        PlaceSnapshot previous = snapshot(1000L, 4.5, 123, { int day, int hour -> 50 })
+        byte[] record = SnapshotCodec.encode(snapshot(2000L, 4.5, 123, { int day, int hour -> 60 }), previous)
+
+        when:
+        SnapshotCodec.decode("ChIJ/x+y", payloadOf(record), null)
+
+        then:
+        thrown(IllegalStateException)
+    }
+
+    def "A record with unexpected trailing bytes is rejected"() {
+        given:
+        byte[] record = SnapshotCodec.encode(snapshot(1000L, 4.5, 123, { int day, int hour -> 50 }), null)
+        ByteBuffer payload = ByteBuffer.allocate(record.length + 1).put(payloadOf(record)).put((byte) 0)
+        ((Buffer) payload).flip()
+
+        when:
+        SnapshotCodec.decode("ChIJ/x+y", payload, null)
+
+        then:
+        thrown(IllegalStateException)
+    }
+
+    def "Varints round-trip"() {
+        given:
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+
+        when:
+        SnapshotCodec.writeVarLong(out, value)
+
+        then:
+        SnapshotCodec.readVarLong(ByteBuffer.wrap(out.toByteArray())) == value
+
+        where:
+        value << [0L, 1L, 127L, 128L, 16383L, 16384L, Integer.MAX_VALUE as long, Long.MAX_VALUE, -1L]
+    }
+}
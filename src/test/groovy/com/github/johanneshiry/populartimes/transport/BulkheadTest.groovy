@@ -0,0 +1,176 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes.transport
+
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+
+class BulkheadTest extends Specification {
+
+    def "A bulkhead starts calls up to its limit and queues the remaining ones"() {
+        given:
+        Bulkhead bulkhead = new Bulkhead(2, 10)
+        List<CompletableFuture<String>> calls = [new CompletableFuture<String>(), new CompletableFuture<String>(),
+                                                 new CompletableFuture<String>()]
+        List<Integer> started = []
+
+        when:
+        List<CompletableFuture<String>> results = (0..2).collect { int i ->
+            bulkhead.execute({
+                started << i
+                calls[i]
+            }, { new IllegalStateException("full") })
+        }
+
+        then:
+        started == [0, 1]
+        bulkhead.activeCalls == 2
+        bulkhead.queuedCalls == 1
+
+        when:
+        calls[0].complete("first")
+
+        then:
+        results[0].join() == "first"
+        started == [0, 1, 2]
+        bulkhead.activeCalls == 2
+        bulkhead.queuedCalls == 0
+
+        when:
+        calls[1].complete("second")
+        calls[2].complete("third")
+
+        then:
+        results*.join() == ["first", "second", "third"]
+        bulkhead.activeCalls == 0
+    }
+
+    def "A bulkhead rejects calls that do not fit into its queue"() {
+        given:
+        Bulkhead bulkhead = new Bulkhead(1, 1)
+        bulkhead.execute({ new CompletableFuture<String>() }, { new IllegalStateException("full") })
+        bulkhead.execute({ new CompletableFuture<String>() }, { new IllegalStateException("full") })
+
+        when:
+        CompletableFuture<String> rejected =
+                bulkhead.execute({ new CompletableFuture<String>() }, { new IllegalStateException("full") })
+
+        then:
+        rejected.isCompletedExceptionally()
+        bulkhead.activeCalls == 1
+        bulkhead.queuedCalls == 1
+    }
+
+    def "A bulkhead releases the slot of a call whose supplier throws"() {
+        given:
+        Bulkhead bulkhead = new Bulkhead(1, 0)
+
+        when:
+        CompletableFuture<String> failed = bulkhead.execute({ throw new IllegalArgumentException("broken") }, {
+            new IllegalStateException("full")
+        })
+        CompletableFuture<String> next =
+                bulkhead.execute({ CompletableFuture.completedFuture("ok") }, { new IllegalStateException("full") })
+
+        then:
+        failed.isCompletedExceptionally()
+        next.join() == "ok"
+        bulkhead.activeCalls == 0
+    }
+
+    def "A bulkhead drains any number of queued calls completing synchronously without growing the stack"() {
+        given:
+        Bulkhead bulkhead = new Bulkhead(1, Integer.MAX_VALUE)
+        CompletableFuture<String> gate = new CompletableFuture<>()
+        bulkhead.execute({ gate }, { new IllegalStateException("full") })
+        List<CompletableFuture<String>> queued = (1..50000).collect {
+            bulkhead.execute({
+                CompletableFuture<String> failed = new CompletableFuture<>()
+                failed.completeExceptionally(new IOException("rejected"))
+                failed
+            }, { new IllegalStateException("full") })
+        }
+
+        when:
+        gate.complete("ok")
+
+        then:
+        queued.every { it.isCompletedExceptionally() }
+        bulkhead.activeCalls == 0
+        bulkhead.queuedCalls == 0
+    }
+
+    def "A bulkhead runs blocking calls of different threads in parallel"() {
+        given:
+        Bulkhead bulkhead = new Bulkhead(8, Integer.MAX_VALUE)
+        CountDownLatch running = new CountDownLatch(8)
+        ExecutorService threads = Executors.newFixedThreadPool(8)
+
+        when: "every call blocks until all calls are running at the same time"
+        List<Future<Boolean>> results = (1..8).collect {
+            threads.submit({
+                bulkhead.execute({
+                    running.countDown()
+                    CompletableFuture.completedFuture(running.await(5, TimeUnit.SECONDS))
+                }, { new IllegalStateException("full") }).join()
+            } as Callable<Boolean>)
+        }
+
+        then:
+        results*.get().every()
+        bulkhead.activeCalls == 0
+
+        cleanup:
+        threads.shutdownNow()
+    }
+
+    def "A bulkhead cannot be created without capacity"() {
+        when:
+        new Bulkhead(maxConcurrentCalls, maxQueuedCalls)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        where:
+        maxConcurrentCalls | maxQueuedCalls
+        0                  | 10
+        1                  | -1
+    }
+}
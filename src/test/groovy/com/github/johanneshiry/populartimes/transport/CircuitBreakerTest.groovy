@@ -0,0 +1,204 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes.transport
+
+import spock.lang.Specification
+
+class CircuitBreakerTest extends Specification {
+
+    private static final long FAST = 1000000L       // 1 ms
+    private static final long SLOW = 2000000000L    // 2 s
+
+    /**
+     * executes one call permitted by the breaker
+     */
+    private static void execute(CircuitBreaker breaker, boolean failure, long duration) {
+        breaker.onResult(breaker.tryAcquirePermission(), failure, duration)
+    }
+
+    private static boolean permits(CircuitBreaker breaker) {
+        return breaker.tryAcquirePermission() != CircuitBreaker.NOT_PERMITTED
+    }
+
+    def "A circuit breaker stays closed until the minimum number of calls has been recorded"() {
+        given:
+        CircuitBreaker breaker = new CircuitBreaker(10, 4, 0.5, 1000, 0.5, 60000, 1)
+
+        when:
+        3.times { execute(breaker, true, FAST) }
+
+        then:
+        breaker.state == CircuitBreaker.State.CLOSED
+        permits(breaker)
+
+        when:
+        execute(breaker, true, FAST)
+
+        then:
+        breaker.state == CircuitBreaker.State.OPEN
+        !permits(breaker)
+    }
+
+    def "A circuit breaker opens if the failure rate of the recent calls reaches its threshold"() {
+        given:
+        CircuitBreaker breaker = new CircuitBreaker(4, 4, 0.5, 1000, 1.0, 60000, 1)
+
+        when:
+        execute(breaker, false, FAST)
+        execute(breaker, false, FAST)
+        execute(breaker, false, FAST)
+        execute(breaker, true, FAST)
+
+        then:
+        breaker.state == CircuitBreaker.State.CLOSED
+
+        when: "the oldest successful call leaves the window"
+        execute(breaker, true, FAST)
+
+        then:
+        breaker.state == CircuitBreaker.State.OPEN
+    }
+
+    def "A circuit breaker opens if too many recent calls were slow"() {
+        given:
+        CircuitBreaker breaker = new CircuitBreaker(4, 4, 1.0, 1000, 0.5, 60000, 1)
+
+        when:
+        execute(breaker, false, FAST)
+        execute(breaker, false, FAST)
+        execute(breaker, false, SLOW)
+        execute(breaker, false, SLOW)
+
+        then:
+        breaker.state == CircuitBreaker.State.OPEN
+    }
+
+    def "An open circuit breaker lets a limited number of probes pass and closes if all of them succeed"() {
+        given:
+        CircuitBreaker breaker = new CircuitBreaker(2, 2, 0.5, 1000, 0.5, 0, 2)
+        2.times { execute(breaker, true, FAST) }
+
+        expect:
+        breaker.state == CircuitBreaker.State.OPEN
+
+        when:
+        long first = breaker.tryAcquirePermission()
+        long second = breaker.tryAcquirePermission()
+
+        then:
+        breaker.state == CircuitBreaker.State.HALF_OPEN
+        first != CircuitBreaker.NOT_PERMITTED
+        second != CircuitBreaker.NOT_PERMITTED
+        !permits(breaker)
+
+        when:
+        breaker.onResult(first, false, FAST)
+        breaker.onResult(second, false, FAST)
+
+        then:
+        breaker.state == CircuitBreaker.State.CLOSED
+        permits(breaker)
+    }
+
+    def "A half open circuit breaker opens again if a probe fails or is slow"() {
+        given:
+        CircuitBreaker breaker = new CircuitBreaker(2, 2, 0.5, 1000, 0.5, 0, 2)
+        2.times { execute(breaker, true, FAST) }
+        long probe = breaker.tryAcquirePermission()
+
+        when:
+        breaker.onResult(probe, failure, duration)
+
+        then:
+        breaker.state == CircuitBreaker.State.OPEN
+
+        where:
+        failure | duration
+        true    | FAST
+        false   | SLOW
+    }
+
+    def "A half open circuit breaker ignores results of calls permitted before it opened"() {
+        given: "a slow call permitted while the breaker was closed"
+        CircuitBreaker breaker = new CircuitBreaker(2, 2, 0.5, 1000, 0.5, 0, 1)
+        long stale = breaker.tryAcquirePermission()
+        2.times { execute(breaker, true, FAST) }
+        long probe = breaker.tryAcquirePermission()
+
+        expect:
+        breaker.state == CircuitBreaker.State.HALF_OPEN
+
+        when: "the slow call finishes while the breaker is half open"
+        breaker.onResult(stale, failure, FAST)
+
+        then: "it does not count as probe"
+        breaker.state == CircuitBreaker.State.HALF_OPEN
+
+        when:
+        breaker.onResult(probe, false, FAST)
+
+        then:
+        breaker.state == CircuitBreaker.State.CLOSED
+
+        where:
+        failure << [false, true]
+    }
+
+    def "A circuit breaker rejects calls while it is open"() {
+        given:
+        CircuitBreaker breaker = new CircuitBreaker(1, 1, 1.0, 1000, 1.0, 60000, 1)
+
+        when:
+        execute(breaker, true, FAST)
+
+        then:
+        breaker.state == CircuitBreaker.State.OPEN
+        !permits(breaker)
+    }
+
+    def "A circuit breaker cannot be created with invalid settings"() {
+        when:
+        new CircuitBreaker(windowSize, minimumCalls, failureRate, 1000, slowCallRate, 1000, probeCalls)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        where:
+        windowSize | minimumCalls | failureRate | slowCallRate | probeCalls
+        0          | 1            | 0.5         | 0.5          | 1
+        5          | 6            | 0.5         | 0.5          | 1
+        5          | 5            | 0.0         | 0.5          | 1
+        5          | 5            | 0.5         | 1.5          | 1
+        5          | 5            | 0.5         | 0.5          | 0
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes.transport
+
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class ResilientTransportTest extends Specification {
+
+    private ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor()
+
+    def cleanup() {
+        scheduler.shutdownNow()
+    }
+
+    /**
+     * transport failing all requests asynchronously after a few milliseconds
+     */
+    private Transport failingTransport(AtomicInteger requests) {
+        return new Transport() {
+            @Override
+            String fetch(Endpoint endpoint, String url, Map<String, String> headers) {
+                throw new UnsupportedOperationException()
+            }
+
+            @Override
+            CompletableFuture<String> fetchAsync(Endpoint endpoint, String url, Map<String, String> headers) {
+                requests.incrementAndGet()
+                CompletableFuture<String> future = new CompletableFuture<>()
+                scheduler.schedule({ future.completeExceptionally(new IOException("503")) }, 2, TimeUnit.MILLISECONDS)
+                return future
+            }
+        }
+    }
+
+    private static Map<Endpoint, Bulkhead> bulkheads(int maxConcurrentCalls, int maxQueuedCalls) {
+        return Endpoint.values().collectEntries { [(it): new Bulkhead(maxConcurrentCalls, maxQueuedCalls)] }
+    }
+
+    private static Map<Endpoint, CircuitBreaker> circuitBreakers() {
+        return Endpoint.values().collectEntries { [(it): new CircuitBreaker(4, 4, 0.5, 10000, 0.5, 60000, 1)] }
+    }
+
+    private static Throwable failureOf(CompletableFuture<String> future) {
+        try {
+            future.join()
+            return null
+        } catch(CompletionException e) {
+            return e.cause
+        }
+    }
+
+    def "A resilient transport passes successful requests through"() {
+        given:
+        Transport delegate = Mock(Transport)
+        ResilientTransport transport = new ResilientTransport(delegate)
+
+        when:
+        String body = transport.fetch(Endpoint.DETAILS, "url", [:])
+
+        then:
+        1 * delegate.fetchAsync(Endpoint.DETAILS, "url", [:]) >> CompletableFuture.completedFuture("body")
+        body == "body"
+        transport.getCircuitBreaker(Endpoint.DETAILS).state == CircuitBreaker.State.CLOSED
+    }
+
+    def "A resilient transport rejects requests without reaching the endpoint once its circuit breaker opened"() {
+        given:
+        AtomicInteger requests = new AtomicInteger()
+        ResilientTransport transport = new ResilientTransport(failingTransport(requests), bulkheads(1, 100),
+                circuitBreakers())
+        4.times { failureOf(transport.fetchAsync(Endpoint.SEARCH, "url", [:])) }
+
+        when:
+        Throwable failure = failureOf(transport.fetchAsync(Endpoint.SEARCH, "url", [:]))
+
+        then:
+        requests.get() == 4
+        failure instanceof CallNotPermittedException
+        transport.getCircuitBreaker(Endpoint.SEARCH).state == CircuitBreaker.State.OPEN
+        transport.getCircuitBreaker(Endpoint.DETAILS).state == CircuitBreaker.State.CLOSED
+        transport.getBulkhead(Endpoint.SEARCH).activeCalls == 0
+    }
+
+    def "A resilient transport rejects requests that do not fit into the bulkhead of the endpoint"() {
+        given:
+        Transport delegate = Stub(Transport) {
+            fetchAsync(_, _, _) >> new CompletableFuture<String>()
+        }
+        ResilientTransport transport = new ResilientTransport(delegate, bulkheads(1, 1), circuitBreakers())
+        transport.fetchAsync(Endpoint.DETAILS, "running", [:])
+        transport.fetchAsync(Endpoint.DETAILS, "queued", [:])
+
+        when:
+        CompletableFuture<String> rejected = transport.fetchAsync(Endpoint.DETAILS, "rejected", [:])
+
+        then:
+        failureOf(rejected) instanceof CallNotPermittedException
+        !transport.fetchAsync(Endpoint.SEARCH, "other endpoint", [:]).isDone()
+    }
+
+    def "A resilient transport completes thousands of queued requests while the endpoint fails"() {
+        given:
+        AtomicInteger requests = new AtomicInteger()
+        ResilientTransport transport = new ResilientTransport(failingTransport(requests))
+
+        when:
+        List<CompletableFuture<String>> responses = (1..5000).collect {
+            transport.fetchAsync(Endpoint.SEARCH, "url" + it, [:])
+        }
+        CompletableFuture.allOf(responses as CompletableFuture[]).handle { value, e -> null }.get(10, TimeUnit.SECONDS)
+
+        then:
+        responses.every { it.isCompletedExceptionally() }
+        requests.get() < 5000 // the open circuit breaker rejected the remaining requests
+        transport.getCircuitBreaker(Endpoint.SEARCH).state == CircuitBreaker.State.OPEN
+        transport.getBulkhead(Endpoint.SEARCH).activeCalls == 0
+        transport.getBulkhead(Endpoint.SEARCH).queuedCalls == 0
+    }
+
+    def "A resilient transport runs blocking requests of different threads in parallel"() {
+        given: "a transport blocking every request until eight requests are running at the same time"
+        CountDownLatch running = new CountDownLatch(8)
+        ResilientTransport transport = new ResilientTransport(new Transport() {
+            @Override
+            String fetch(Endpoint endpoint, String url, Map<String, String> headers) {
+                throw new UnsupportedOperationException()
+            }
+
+            @Override
+            CompletableFuture<String> fetchAsync(Endpoint endpoint, String url, Map<String, String> headers) {
+                running.countDown()
+                return CompletableFuture.completedFuture(String.valueOf(running.await(5, TimeUnit.SECONDS)))
+            }
+        })
+        ExecutorService threads = Executors.newFixedThreadPool(8)
+
+        when:
+        List<Future<String>> bodies = (1..8).collect {
+            threads.submit({ transport.fetch(Endpoint.DETAILS, "url" + it, [:]) } as Callable<String>)
+        }
+
+        then:
+        bodies*.get() == ["true"] * 8
+
+        cleanup:
+        threads.shutdownNow()
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes.transport.stub
+
+import com.github.johanneshiry.populartimes.transport.ApacheHttpTransport
+import com.github.johanneshiry.populartimes.transport.BaseUrls
+import com.github.johanneshiry.populartimes.transport.Endpoint
+import com.github.johanneshiry.populartimes.transport.HttpStatusException
+import spock.lang.Shared
+import spock.lang.Specification
+
+class StubServerTest extends Specification {
+
+    @Shared
+    StubRecordings recordings = new StubRecordings()
+            .put(Endpoint.DETAILS, "ChIJ/x+y", '{"result":{"name":"Recorded"}}')
+            .putDefault(Endpoint.DETAILS, '{"result":{"name":"Default"}}')
+            .put(Endpoint.SEARCH, "Pizza Street 1", "search response")
+
+    @Shared
+    StubServer server
+
+    @Shared
+    ApacheHttpTransport transport = new ApacheHttpTransport(2)
+
+    def setupSpec() {
+        server = new StubServer(recordings).start()
+    }
+
+    def cleanupSpec() {
+        server.close()
+        transport.close()
+    }
+
+    def setup() {
+        server.setProfile(StubProfile.IDEAL)
+        server.resetCounters()
+    }
+
+    private String details(String placeId) {
+        return transport.fetch(Endpoint.DETAILS, server.baseUrls.detailsUrl + "?placeid=" +
+                URLEncoder.encode(placeId, "UTF-8") + "&key=test", [:])
+    }
+
+    private String search(String query) {
+        return transport.fetch(Endpoint.SEARCH, server.baseUrls.searchUrl + "?tbm=map&q=" +
+                URLEncoder.encode(query, "UTF-8"), [:])
+    }
+
+    /**
+     * @return the status code the request failed with or 200 if it succeeded
+     */
+    private int statusOf(Closure<String> request) {
+        try {
+            request.call()
+            return 200
+        } catch(HttpStatusException e) {
+            return e.statusCode
+        }
+    }
+
+    def "A stub server replays the response recorded for the key of a request"() {
+        expect:
+        details("ChIJ/x+y") == '{"result":{"name":"Recorded"}}'
+        search("Pizza Street 1") == "search response"
+        server.getRequestCount(Endpoint.DETAILS) == 1
+        server.getRequestCount(Endpoint.SEARCH) == 1
+        server.getErrorCount(Endpoint.DETAILS) == 0
+    }
+
+    def "A stub server replays the default response of an endpoint for unknown keys"() {
+        expect:
+        details("unknown") == '{"result":{"name":"Default"}}'
+    }
+
+    def "A stub server answers with 404 if neither a recording nor a default response exists"() {
+        when:
+        int status = statusOf { search("unknown") }
+
+        then:
+        status == 404
+        server.getErrorCount(Endpoint.SEARCH) == 1
+    }
+
+    def "A stub server fails the configured share of requests without breaking pooled connections"() {
+        given:
+        server.setProfile(Endpoint.SEARCH, new StubProfile(0, 0, 1.0, 0))
+
+        when:
+        List<Integer> searchStatus = (1..10).collect { statusOf { search("Pizza Street 1") } }
+        List<Integer> detailStatus = (1..10).collect { statusOf { details("ChIJ/x+y") } }
+
+        then:
+        searchStatus.every { it == 500 }
+        detailStatus.every { it == 200 }
+        server.getRequestCount(Endpoint.SEARCH) == 10
+        server.getErrorCount(Endpoint.SEARCH) == 10
+        server.getErrorCount(Endpoint.DETAILS) == 0
+    }
+
+    def "A stub server throttles requests above the configured rate"() {
+        given:
+        server.setProfile(Endpoint.DETAILS, new StubProfile(0, 0, 0.0, 5))
+
+        when:
+        List<Throwable> failures = []
+        int succeeded = 0
+        20.times {
+            try {
+                details("ChIJ/x+y")
+                succeeded++
+            } catch(HttpStatusException e) {
+                failures << e
+            }
+        }
+
+        then: "at most 5 requests per second pass, the 20 requests may span two seconds"
+        succeeded >= 5
+        succeeded <= 10
+        failures.every { it instanceof HttpStatusException && ((HttpStatusException) it).isThrottled() }
+        server.getThrottledCount(Endpoint.DETAILS) == failures.size()
+        server.getRequestCount(Endpoint.DETAILS) == 20
+    }
+
+    def "A stub server delays its responses by the configured latency"() {
+        given:
+        server.setProfile(Endpoint.DETAILS, new StubProfile(200, 50, 0.0, 0))
+
+        when:
+        long start = System.nanoTime()
+        String response = details("ChIJ/x+y")
+        long elapsedMillis = (System.nanoTime() - start) / 1000000
+
+        then:
+        response == '{"result":{"name":"Recorded"}}'
+        elapsedMillis >= 200
+    }
+
+    def "A stub server provides base urls pointing to itself"() {
+        expect:
+        server.baseUrls.placesBaseUrl.startsWith("http://")
+        server.baseUrls.placesBaseUrl.contains(":" + server.port + "/")
+        server.baseUrls != BaseUrls.GOOGLE
+    }
+}
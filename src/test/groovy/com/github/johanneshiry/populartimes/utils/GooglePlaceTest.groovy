@@ -0,0 +1,90 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes.utils
+
+import spock.lang.Specification
+
+class GooglePlaceTest extends Specification {
+
+    private static GooglePlace place(Map<Integer, Map<Long, Double>> popularTimes, String[] types) {
+        return new GooglePlace("Pizza", "Street 1", "ChIJ/x+y", popularTimes, 4.5, new LatLong(51.2, 7.1), types, 123)
+    }
+
+    def "The popular times of a place cannot be modified"() {
+        given:
+        Map<Long, Double> monday = [8L: 10.0d]
+        Map<Integer, Map<Long, Double>> popularTimes = [1: monday]
+        GooglePlace place = place(popularTimes, ["restaurant"] as String[])
+
+        when: "the map the place has been created with is modified"
+        monday.put(9L, 20.0d)
+        popularTimes.put(2, [:])
+
+        then:
+        place.popularTimes == [1: [8L: 10.0d]]
+
+        when:
+        place.popularTimes.get(1).put(9L, 20.0d)
+
+        then:
+        thrown(UnsupportedOperationException)
+
+        when:
+        place.popularTimes.remove(1)
+
+        then:
+        thrown(UnsupportedOperationException)
+    }
+
+    def "The types of a place cannot be modified"() {
+        given:
+        String[] types = ["restaurant", "food"] as String[]
+        GooglePlace place = place([:], types)
+
+        when:
+        types[0] = "bar"
+        place.types[1] = "bar"
+
+        then:
+        place.types == ["restaurant", "food"] as String[]
+    }
+
+    def "A place can be created without popular times and types"() {
+        when:
+        GooglePlace place = place(null, null)
+
+        then:
+        place.popularTimes == null
+        place.types == null
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2019., Johannes Hiry
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.johanneshiry.populartimes.utils
+
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+
+class SingleFlightTest extends Specification {
+
+    def "Concurrent calls with the same key share one call"() {
+        given:
+        SingleFlight<String, String> flights = new SingleFlight<>()
+        CompletableFuture<String> call = new CompletableFuture<>()
+        int calls = 0
+
+        when:
+        List<CompletableFuture<String>> results = (1..3).collect {
+            flights.execute("key", {
+                calls++
+                call
+            })
+        }
+
+        then:
+        calls == 1
+        flights.size() == 1
+        results.every { !it.isDone() }
+
+        when:
+        call.complete("result")
+
+        then:
+        results*.join() == ["result", "result", "result"]
+        flights.size() == 0
+    }
+
+    def "Calls with different keys are not coalesced"() {
+        given:
+        SingleFlight<String, String> flights = new SingleFlight<>()
+
+        when:
+        flights.execute("a", { new CompletableFuture<String>() })
+        flights.execute("b", { new CompletableFuture<String>() })
+
+        then:
+        flights.size() == 2
+    }
+
+    def "The key is released after the call completed, so the next call is executed again"() {
+        given:
+        SingleFlight<String, String> flights = new SingleFlight<>()
+        int calls = 0
+        Closure<CompletableFuture<String>> call = {
+            calls++
+            CompletableFuture.completedFuture("result " + calls)
+        }
+
+        expect:
+        flights.execute("key", call).join() == "result 1"
+        flights.execute("key", call).join() == "result 2"
+        flights.size() == 0
+    }
+
+    def "The key is released after a failed call"() {
+        given:
+        SingleFlight<String, String> flights = new SingleFlight<>()
+        CompletableFuture<String> failedCall = new CompletableFuture<>()
+
+        when:
+        CompletableFuture<String> failed = flights.execute("key", { failedCall })
+        failedCall.completeExceptionally(new IOException("failed"))
+        flights.execute("key", { CompletableFuture.completedFuture("ok") }).join()
+
+        then:
+        failed.isCompletedExceptionally()
+        flights.size() == 0
+    }
+
+    def "The key is released after a throwing call supplier"() {
+        given:
+        SingleFlight<String, String> flights = new SingleFlight<>()
+
+        when:
+        CompletableFuture<String> failed = flights.execute("key", { throw new IllegalStateException("broken") })
+        failed.join()
+
+        then:
+        CompletionException e = thrown()
+        e.cause instanceof IllegalStateException
+        flights.size() == 0
+        flights.execute("key", { CompletableFuture.completedFuture("ok") }).join() == "ok"
+    }
+
+    def "Cancelling one caller does neither cancel the call nor the other callers"() {
+        given:
+        SingleFlight<String, String> flights = new SingleFlight<>()
+        CompletableFuture<String> call = new CompletableFuture<>()
+        CompletableFuture<String> first = flights.execute("key", { call })
+        CompletableFuture<String> second = flights.execute("key", { call })
+
+        when:
+        first.cancel(true)
+        call.complete("result")
+
+        then:
+        first.isCancelled()
+        !call.isCancelled()
+        second.join() == "result"
+    }
+}